@@ -0,0 +1,48 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Random;
+
+import static gitlet.SpeedTestUtils.*;
+
+/** Times staging many files with "gitlet add".
+ *  Usage: java gitlet.AddSpeedTest [N [SIZE]]
+ *  creates N files (default 10000) of SIZE bytes (default 1024) and times
+ *  staging all of them with a single "add .", then with "add *" again
+ *  (every file unchanged, so only the stat-cache is consulted), and then
+ *  staging a sample of them one "add" per file.
+ *  @author Min-Hsiu Hsu
+ */
+public class AddSpeedTest {
+    /** Number of files added one command at a time, to extrapolate from. */
+    private static final int SAMPLE = 50;
+
+    /** Runs the timing test.  ARGS are N and SIZE as described above. */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+
+        File dir = scratchDir("gitlet-add");
+        try {
+            gitlet(dir, "init");
+            writeRandomFiles(dir, "f", n, size, new Random(61));
+            System.out.printf("Staging %d files of %d bytes.%n", n, size);
+
+            double all = gitlet(dir, "add", ".");
+            System.out.printf("add . (one command):        %8.2f s%n", all);
+            double again = gitlet(dir, "add", "*");
+            System.out.printf("add * again (unchanged):    %8.2f s%n", again);
+            gitlet(dir, "commit", "all files");
+
+            writeRandomFiles(dir, "f", SAMPLE, size, new Random(62));
+            double one = 0;
+            for (int i = 0; i < SAMPLE; i += 1) {
+                one += gitlet(dir, "add", "f" + i);
+            }
+            System.out.printf("add f (one per command):    %8.2f s for %d files,"
+                    + " about %.0f s for %d%n", one, SAMPLE, one / SAMPLE * n, n);
+        } finally {
+            deleteTree(dir);
+        }
+    }
+}
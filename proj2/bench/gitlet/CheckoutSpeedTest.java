@@ -0,0 +1,44 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Random;
+
+import static gitlet.SpeedTestUtils.*;
+
+/** Times checking out a wide tree with different numbers of workers.
+ *  Usage: java gitlet.CheckoutSpeedTest [N [SIZE]]
+ *  commits N files (default 50000) of SIZE bytes (default 512), and then
+ *  times checking out that commit over an empty branch with the setting
+ *  checkout.workers at 1, 2, 4, 8 and 16.
+ *  @author Min-Hsiu Hsu
+ */
+public class CheckoutSpeedTest {
+    /** The numbers of workers compared. */
+    private static final int[] WORKERS = {1, 2, 4, 8, 16};
+
+    /** Runs the timing test.  ARGS are N and SIZE as described above. */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+
+        File dir = scratchDir("gitlet-checkout");
+        try {
+            gitlet(dir, "init");
+            gitlet(dir, "branch", "empty");
+            writeRandomFiles(dir, "f", n, size, new Random(61));
+            gitlet(dir, "add", ".");
+            gitlet(dir, "commit", "all files");
+            System.out.printf("Checking out %d files of %d bytes (%d processors).%n",
+                    n, size, Runtime.getRuntime().availableProcessors());
+
+            for (int workers : WORKERS) {
+                gitlet(dir, "config", "checkout.workers", Integer.toString(workers));
+                gitlet(dir, "checkout", "empty");
+                double time = gitlet(dir, "checkout", "master");
+                System.out.printf("%3d workers: %8.2f s%n", workers, time);
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+}
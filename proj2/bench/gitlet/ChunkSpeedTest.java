@@ -0,0 +1,81 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import static gitlet.SpeedTestUtils.*;
+import static gitlet.Utils.*;
+
+/** Measures chunk-level dedup of a large file edited over many commits.
+ *  Usage: java gitlet.ChunkSpeedTest [VERSIONS [SIZE]]
+ *  commits VERSIONS versions (default 20) of a file of SIZE bytes (default
+ *  32 MiB), each made from the one before by inserting a short run of
+ *  bytes and overwriting a byte elsewhere, and reports the bytes stored
+ *  for all versions against their total size, and the throughput of
+ *  "add".  The last version is then checked out and compared.
+ *  @author Min-Hsiu Hsu
+ */
+public class ChunkSpeedTest {
+    /** The number of bytes inserted by each edit. */
+    private static final int INSERT = 100;
+
+    /** Runs the test.  ARGS are VERSIONS and SIZE as described above. */
+    public static void main(String[] args) {
+        int versions = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 32 << 20;
+
+        File dir = scratchDir("gitlet-chunk");
+        try {
+            gitlet(dir, "init");
+            Random random = new Random(61);
+            byte[] contents = randomText(size, random);
+            File big = join(dir, "big");
+            long logical = 0;
+            double addTime = 0;
+            for (int v = 0; v < versions; v += 1) {
+                if (v > 0) {
+                    contents = edit(contents, random);
+                }
+                writeContents(big, contents);
+                logical += contents.length;
+                addTime += gitlet(dir, "add", "big");
+                gitlet(dir, "commit", "version " + v);
+            }
+            double unchanged = gitlet(dir, "add", "big");
+            File chunks = join(dir, ".gitlet", "chunks");
+            long stored = diskUsage(join(dir, ".gitlet", "objects"))
+                    + (chunks.exists() ? diskUsage(chunks) : 0);
+
+            System.out.printf("%d versions of a %d byte file.%n", versions, size);
+            System.out.printf("total size of all versions: %12d bytes%n", logical);
+            System.out.printf("stored (objects + chunks):  %12d bytes%n", stored);
+            System.out.printf("dedup ratio:                %12.2f%n", (double) logical / stored);
+            System.out.printf("add, per version:           %12.3f s (%.1f MB/s)%n",
+                    addTime / versions, logical / addTime / 1e6);
+            System.out.printf("add, unchanged file:        %12.3f s%n", unchanged);
+            System.out.printf("add, less unchanged add:    %12.1f MB/s%n",
+                    logical / (addTime - versions * unchanged) / 1e6);
+
+            big.delete();
+            gitlet(dir, "checkout", "--", "big");
+            if (!Arrays.equals(readContents(big), contents)) {
+                throw new IllegalStateException("checked out file differs");
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Returns CONTENTS with INSERT random bytes inserted at one place and
+     *  a byte overwritten at another, both drawn from RANDOM. */
+    private static byte[] edit(byte[] contents, Random random) {
+        int at = random.nextInt(contents.length);
+        byte[] edited = new byte[contents.length + INSERT];
+        System.arraycopy(contents, 0, edited, 0, at);
+        System.arraycopy(randomText(INSERT, random), 0, edited, at, INSERT);
+        System.arraycopy(contents, at, edited, at + INSERT, contents.length - at);
+        edited[random.nextInt(edited.length)] = (byte) ('a' + random.nextInt(26));
+        return edited;
+    }
+}
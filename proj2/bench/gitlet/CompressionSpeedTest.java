@@ -0,0 +1,87 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Random;
+
+import static gitlet.SpeedTestUtils.*;
+import static gitlet.Utils.*;
+
+/** Compares the disk footprint of the objects of a repo with the time to
+ *  check them out, for each compression level of core.compression.
+ *  Usage: java gitlet.CompressionSpeedTest [N [SIZE]]
+ *  commits N files (default 2000) of SIZE bytes (default 8192) at each
+ *  level, once for a tree of English-like text and once for a tree of
+ *  random bytes, and times checking out that commit over an empty branch.
+ *  @author Min-Hsiu Hsu
+ */
+public class CompressionSpeedTest {
+    /** The compression levels compared. */
+    private static final int[] LEVELS = {0, 1, 6, 9};
+    /** The words text files are made of. */
+    private static final String[] WORDS = ("the of and to in is that for it as was with be by on"
+            + " not he this are or his from at which but have an they you were her she there"
+            + " commit branch merge file blob checkout repository staging version history")
+            .split(" ");
+    /** Number of checkouts timed per level, of which the best is reported. */
+    private static final int RUNS = 3;
+
+    /** Runs the timing test.  ARGS are N and SIZE as described above. */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 8192;
+        System.out.printf("Checking out %d files of %d bytes.%n", n, size);
+        run("text", n, size, false);
+        run("binary", n, size, true);
+    }
+
+    /** Reports the footprint and checkout time at each level for a tree of
+     *  N files of SIZE bytes, random bytes if BINARY or text otherwise,
+     *  described as KIND. */
+    private static void run(String kind, int n, int size, boolean binary) {
+        System.out.printf("%n%-7s %6s %14s %10s %12s%n", kind, "level",
+                "objects bytes", "ratio", "checkout s");
+        for (int level : LEVELS) {
+            File dir = scratchDir("gitlet-deflate");
+            try {
+                gitlet(dir, "init");
+                gitlet(dir, "branch", "empty");
+                gitlet(dir, "config", "core.compression", Integer.toString(level));
+                Random random = new Random(61);
+                for (int i = 0; i < n; i += 1) {
+                    byte[] contents;
+                    if (binary) {
+                        contents = new byte[size];
+                        random.nextBytes(contents);
+                    } else {
+                        contents = words(size, random);
+                    }
+                    writeContents(join(dir, "f" + i), contents);
+                }
+                gitlet(dir, "add", ".");
+                gitlet(dir, "commit", "all files");
+                long footprint = diskUsage(join(dir, ".gitlet", "objects"));
+
+                double best = Double.MAX_VALUE;
+                for (int r = 0; r < RUNS; r += 1) {
+                    gitlet(dir, "checkout", "empty");
+                    best = Math.min(best, gitlet(dir, "checkout", "master"));
+                }
+                System.out.printf("%-7s %6d %14d %10.2f %12.2f%n", "", level, footprint,
+                        (double) footprint / ((long) n * size), best);
+            } finally {
+                deleteTree(dir);
+            }
+        }
+    }
+
+    /** Returns SIZE bytes of lines of words drawn from RANDOM. */
+    private static byte[] words(int size, Random random) {
+        StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            text.append(random.nextInt(12) == 0 ? '\n' : ' ');
+        }
+        text.setLength(size);
+        return text.toString().getBytes();
+    }
+}
@@ -0,0 +1,92 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static gitlet.SpeedTestUtils.*;
+import static gitlet.Utils.*;
+
+/** Compares the commands per second of cold starts with those of the
+ *  gitlet daemon.
+ *  Usage: java gitlet.DaemonSpeedTest [ROUNDS]
+ *  runs ROUNDS (default 50) rounds of "add", "commit", "status" and
+ *  "log", changing one file per round, three ways: a new JVM running
+ *  gitlet.Main per command; a new JVM running gitlet.Client per command,
+ *  against a daemon; and requests sent to the daemon from this JVM, as a
+ *  script driving gitlet from a long-lived process would.
+ *  @author Min-Hsiu Hsu
+ */
+public class DaemonSpeedTest {
+    /** The number of commands per round. */
+    private static final int COMMANDS = 4;
+
+    /** Runs the timing test.  ARGS is ROUNDS as described above. */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        System.out.printf("%d rounds of %d commands.%n", rounds, COMMANDS);
+        System.out.printf("%-22s %10s %12s%n", "", "seconds", "commands/s");
+
+        report("cold start (Main)", time(rounds, "gitlet.Main", false));
+        report("client JVM (Client)", time(rounds, "gitlet.Client", true));
+        report("in-process requests", time(rounds, null, true));
+    }
+
+    /** Prints the time SECONDS taken by a run described as WHAT. */
+    private static void report(String what, double[] seconds) {
+        System.out.printf("%-22s %10.2f %12.1f%n", what, seconds[0], seconds[1] / seconds[0]);
+    }
+
+    /** Returns the seconds taken to run ROUNDS rounds of commands, and the
+     *  number of commands, in a new repo, by a new JVM running the class
+     *  MAINCLASS per command, or from this JVM if MAINCLASS is null.
+     *  Starts a daemon for the repo first if DAEMON. */
+    private static double[] time(int rounds, String mainClass, boolean daemon)
+            throws IOException, InterruptedException {
+        File dir = scratchDir("gitlet-daemon");
+        Process server = null;
+        try {
+            gitlet(dir, "init");
+            File daemonFile = join(dir, ".gitlet", "daemon");
+            if (daemon) {
+                server = new ProcessBuilder(javaCommand("gitlet.Main", List.of(), "daemon"))
+                        .directory(dir).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+                while (!daemonFile.exists()) {
+                    Thread.sleep(10);
+                }
+            }
+            PrintStream stdout = System.out;
+            double seconds = 0;
+            for (int r = 0; r < rounds; r += 1) {
+                writeContents(join(dir, "f.txt"), "round " + r + "\n");
+                String[][] commands = {{"add", "f.txt"}, {"commit", "round " + r},
+                    {"status"}, {"log"}};
+                for (String[] command : commands) {
+                    if (mainClass != null) {
+                        seconds += run(dir, javaCommand(mainClass, List.of(), command));
+                    } else {
+                        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                        long start = System.nanoTime();
+                        Client.forward(daemonFile, command);
+                        seconds += (System.nanoTime() - start) / 1e9;
+                        System.setOut(stdout);
+                    }
+                }
+            }
+            if (daemon) {
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                Client.forward(daemonFile, "daemon", "stop");
+                System.setOut(stdout);
+                server.waitFor();
+            }
+            return new double[] {seconds, rounds * COMMANDS};
+        } finally {
+            if (server != null) {
+                server.destroy();
+            }
+            deleteTree(dir);
+        }
+    }
+}
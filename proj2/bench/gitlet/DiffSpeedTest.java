@@ -0,0 +1,70 @@
+package gitlet;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.SpeedTestUtils.*;
+import static gitlet.Utils.*;
+
+/** Times diffs of a large file with a small heap.
+ *  Usage: java gitlet.DiffSpeedTest [LINES [HEAP]]
+ *  commits a file of LINES lines (default 200000) of random text, then
+ *  changes 1%, 10% and 50% of its lines and times "gitlet diff" and
+ *  "gitlet diff --stat" on each version with the JVM option -XmxHEAP
+ *  (default 64m), so a diff taking memory quadratic in the number of
+ *  lines would fail.
+ *  @author Min-Hsiu Hsu
+ */
+public class DiffSpeedTest {
+    /** The fractions of the lines changed. */
+    private static final double[] CHANGED = {0.01, 0.1, 0.5};
+    /** The length of every line, including its newline. */
+    private static final int LINE_LENGTH = 40;
+
+    /** Runs the timing test.  ARGS are LINES and HEAP as described above. */
+    public static void main(String[] args) {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        List<String> heap = List.of("-Xmx" + (args.length > 1 ? args[1] : "64m"));
+
+        File dir = scratchDir("gitlet-diff");
+        try {
+            Random random = new Random(61);
+            byte[] original = randomLines(lines, random);
+            File f = join(dir, "big.txt");
+            gitlet(dir, "init");
+            writeContents(f, original);
+            gitlet(dir, "add", "big.txt");
+            gitlet(dir, "commit", "big file");
+            System.out.printf("Diffing a file of %d lines (%d bytes) with %s.%n",
+                    lines, original.length, heap.get(0));
+            System.out.printf("%8s %10s %10s%n", "changed", "diff s", "--stat s");
+
+            for (double fraction : CHANGED) {
+                byte[] changed = original.clone();
+                for (int i = 0; i < lines; i += 1) {
+                    if (random.nextDouble() < fraction) {
+                        int at = i * LINE_LENGTH + random.nextInt(LINE_LENGTH - 1);
+                        changed[at] = (byte) ('A' + random.nextInt(26));
+                    }
+                }
+                writeContents(f, changed);
+                double diff = gitlet(dir, heap, "diff");
+                double stat = gitlet(dir, heap, "diff", "--stat");
+                System.out.printf("%7.0f%% %10.2f %10.2f%n", fraction * 100, diff, stat);
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Returns N lines of LINE_LENGTH bytes of random text from RANDOM. */
+    private static byte[] randomLines(int n, Random random) {
+        byte[] text = new byte[n * LINE_LENGTH];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = (i % LINE_LENGTH == LINE_LENGTH - 1) ? (byte) '\n'
+                    : (byte) ('a' + random.nextInt(26));
+        }
+        return text;
+    }
+}
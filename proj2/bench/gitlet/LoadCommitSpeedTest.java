@@ -0,0 +1,76 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Date;
+import java.util.TreeMap;
+
+import static gitlet.SpeedTestUtils.*;
+import static gitlet.Utils.*;
+
+/** Compares the throughput of Commit.readCommit on commits saved by Java
+ *  serialization, as before the binary encoding, and in the binary
+ *  encoding.
+ *  Usage: java gitlet.LoadCommitSpeedTest [SECONDS]
+ *  saves commits tracking 1, 100 and 10000 files in both formats, and
+ *  loads each one repeatedly for SECONDS seconds (default 2) after an
+ *  equal warm-up, reporting loads per second and the size of each file.
+ *  @author Min-Hsiu Hsu
+ */
+public class LoadCommitSpeedTest {
+    /** Numbers of tracked files in the commits that are timed. */
+    private static final int[] SIZES = {1, 100, 10000};
+
+    /** Runs the timing test.  ARGS is SECONDS as described above. */
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+
+        File dir = scratchDir("gitlet-load");
+        try {
+            System.out.printf("%8s %12s %12s %14s %14s%n", "files",
+                    "legacy B", "binary B", "legacy ops/s", "binary ops/s");
+            for (int n : SIZES) {
+                Commit c = sampleCommit(n);
+                File legacy = join(dir, "legacy" + n);
+                writeObject(legacy, c);
+                File binary = join(dir, "binary" + n);
+                writeContents(binary, c.encode());
+
+                time(legacy, seconds);
+                time(binary, seconds);
+                System.out.printf("%8d %12d %12d %14.0f %14.0f%n", n,
+                        legacy.length(), binary.length(),
+                        time(legacy, seconds), time(binary, seconds));
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Returns a commit tracking N files in a directory tree. */
+    private static Commit sampleCommit(int n) {
+        TreeMap<String, File> blobs = new TreeMap<>();
+        for (int i = 0; i < n; i += 1) {
+            String name = "src/module" + (i % 50) + "/File" + i + ".java";
+            blobs.put(name, join(Repository.OBJECT_DIR, sha1(name)));
+        }
+        File parent = join(Repository.COMMIT_DIR, sha1("parent"));
+        return new Commit(parent, null, new Date(), "Commit tracking " + n + " files", blobs);
+    }
+
+    /** Loads the commit in FILE for about SECONDS seconds and returns the
+     *  number of loads per second. */
+    private static double time(File file, double seconds) {
+        long limit = (long) (seconds * 1e9);
+        long start = System.nanoTime();
+        long elapsed;
+        int loads = 0;
+        do {
+            if (Commit.readCommit(file).getBlobs().isEmpty()) {
+                throw new IllegalStateException("empty commit");
+            }
+            loads += 1;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < limit);
+        return loads / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,106 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.SpeedTestUtils.*;
+import static gitlet.Utils.*;
+
+/** Times "gitlet log -- PATH" with and without the changed-path filters.
+ *  Usage: java gitlet.LogPathSpeedTest [COMMITS [FILES]]
+ *  makes COMMITS commits (default 2000), through a daemon, each changing
+ *  one of FILES files (default 500) chosen at random, and then times in
+ *  new JVMs a plain "log", "log -- PATH" with the filters, and "log --
+ *  PATH" with the filters deleted, so that every commit and its parent
+ *  are loaded and compared, as the filters are built again.
+ *  @author Min-Hsiu Hsu
+ */
+public class LogPathSpeedTest {
+    /** Number of timed runs of each command, of which the best is reported. */
+    private static final int RUNS = 3;
+
+    /** Runs the timing test.  ARGS are COMMITS and FILES as described above. */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        File dir = scratchDir("gitlet-logpath");
+        Process server = null;
+        try {
+            gitlet(dir, "init");
+            writeRandomFiles(dir, "f", files, 1024, new Random(61));
+            gitlet(dir, "add", ".");
+            gitlet(dir, "commit", "all files");
+
+            File daemonFile = join(dir, ".gitlet", "daemon");
+            server = new ProcessBuilder(javaCommand("gitlet.Main", List.of(), "daemon"))
+                    .directory(dir).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            while (!daemonFile.exists()) {
+                Thread.sleep(10);
+            }
+            PrintStream stdout = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            Random random = new Random(62);
+            for (int c = 0; c < commits; c += 1) {
+                String name = "f" + random.nextInt(files);
+                writeContents(join(dir, name), "commit " + c + "\n");
+                Client.forward(daemonFile, "add", name);
+                Client.forward(daemonFile, "commit", "change " + name);
+            }
+            Client.forward(daemonFile, "daemon", "stop");
+            System.setOut(stdout);
+            server.waitFor();
+
+            System.out.printf("%d commits changing one of %d files each.%n", commits, files);
+            System.out.printf("log:                         %6.3f s%n", best(dir, "log"));
+            System.out.printf("log -- f7 (filters):         %6.3f s   %s%n",
+                    best(dir, "log", "--", "f7"), trace(dir, "log", "--", "f7"));
+            double rebuild = 0;
+            for (int r = 0; r < RUNS; r += 1) {
+                join(dir, ".gitlet", "commit-paths").delete();
+                join(dir, ".gitlet", "commit-path-filters").delete();
+                double t = gitlet(dir, "log", "--", "f7");
+                rebuild = r == 0 ? t : Math.min(rebuild, t);
+            }
+            System.out.printf("log -- f7 (no filters):      %6.3f s%n", rebuild);
+        } finally {
+            if (server != null) {
+                server.destroy();
+            }
+            deleteTree(dir);
+        }
+    }
+
+    /** Returns the best of RUNS times of "gitlet ARGS" in DIR. */
+    private static double best(File dir, String... args) {
+        double best = Double.MAX_VALUE;
+        for (int r = 0; r < RUNS; r += 1) {
+            best = Math.min(best, gitlet(dir, args));
+        }
+        return best;
+    }
+
+    /** Returns what "gitlet ARGS" in DIR reports on its work, as the
+     *  trace lines of the log command. */
+    private static String trace(File dir, String... args)
+            throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(javaCommand("gitlet.Main", List.of(), args))
+                .directory(dir).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        pb.environment().put("GITLET_TRACE", "1");
+        Process p = pb.start();
+        String err = new String(p.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
+        p.waitFor();
+        StringBuilder result = new StringBuilder();
+        for (String line : err.split("\n")) {
+            if (line.startsWith("trace: log:")) {
+                result.append(line.substring("trace: log: ".length()));
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static gitlet.SpeedTestUtils.*;
+import static gitlet.Utils.*;
+
+/** Times fetching from a remote repo on the same machine.
+ *  Usage: java gitlet.RemoteSpeedTest [FILES [COMMITS]]
+ *  commits FILES files (default 2000) in a repo, then COMMITS commits
+ *  (default 20) each changing one of them, and times in a second repo
+ *  the first fetch of that history, and then a fetch of one more commit,
+ *  reporting the objects each sent and the files the fetching repo
+ *  holds after each.
+ *  @author Min-Hsiu Hsu
+ */
+public class RemoteSpeedTest {
+
+    /** Runs the timing test.  ARGS are FILES and COMMITS as described above. */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int commits = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        File dir = scratchDir("gitlet-remote");
+        File origin = join(dir, "origin");
+        File copy = join(dir, "copy");
+        origin.mkdir();
+        copy.mkdir();
+        try {
+            gitlet(origin, "init");
+            Random random = new Random(71);
+            writeRandomFiles(origin, "f", files, 1024, random);
+            gitlet(origin, "add", ".");
+            gitlet(origin, "commit", "all files");
+            for (int c = 0; c < commits; c += 1) {
+                change(origin, "f" + random.nextInt(files), c);
+            }
+            gitlet(copy, "init");
+            gitlet(copy, "add-remote", "origin", "../origin/.gitlet");
+
+            System.out.printf("%d files, %d commits.%n", files, commits + 1);
+            System.out.printf("first fetch:       %s, %d files in .gitlet%n",
+                    fetch(copy), fileCount(join(copy, ".gitlet")));
+            change(origin, "f" + random.nextInt(files), commits);
+            System.out.printf("fetch of 1 commit: %s, %d files in .gitlet%n",
+                    fetch(copy), fileCount(join(copy, ".gitlet")));
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Commits in the repo in DIR a change to its file NAME, the Cth. */
+    private static void change(File dir, String name, int c) {
+        writeContents(join(dir, name), "change " + c + "\n");
+        gitlet(dir, "add", name);
+        gitlet(dir, "commit", "change " + c);
+    }
+
+    /** Runs "gitlet fetch origin master" in DIR, and returns the time it
+     *  took and what it reports receiving. */
+    private static String fetch(File dir) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(javaCommand("gitlet.Main", List.of(),
+                "fetch", "origin", "master"))
+                .directory(dir).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        pb.environment().put("GITLET_TRACE", "1");
+        long start = System.nanoTime();
+        Process p = pb.start();
+        String err = new String(p.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
+        p.waitFor();
+        double time = (System.nanoTime() - start) / 1e9;
+        /* The remote writes its own trace to the same stream. */
+        Matcher m = Pattern.compile("received [^\n]*? bytes").matcher(err);
+        return String.format("%6.3f s   %s", time, m.find() ? m.group() : "");
+    }
+
+    /** Returns the number of plain files under DIR. */
+    private static int fileCount(File dir) {
+        int count = 0;
+        File[] entries = dir.listFiles();
+        for (File f : entries == null ? new File[0] : entries) {
+            count += f.isDirectory() ? fileCount(f) : 1;
+        }
+        return count;
+    }
+}
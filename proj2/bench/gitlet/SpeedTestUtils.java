@@ -0,0 +1,111 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/** Utilities shared by the Gitlet timing tests.  Gitlet commands are run
+ *  the way a user runs them, as a new JVM per command in a scratch
+ *  working directory, so the timings include start-up and all file I/O.
+ *  @author Min-Hsiu Hsu
+ */
+class SpeedTestUtils {
+
+    /** Returns a new empty scratch directory whose name starts with PREFIX. */
+    static File scratchDir(String prefix) {
+        try {
+            return Files.createTempDirectory(prefix).toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Deletes DIR and everything in it. */
+    static void deleteTree(File dir) {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile)
+                    .forEach(File::delete);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Runs "java gitlet.Main ARGS" in DIR, with the extra JVM options in
+     *  JVMOPTIONS, and returns its wall-clock time in seconds.  Throws
+     *  IllegalStateException if the command fails. */
+    static double gitlet(File dir, List<String> jvmOptions, String... args) {
+        return run(dir, javaCommand("gitlet.Main", jvmOptions, args));
+    }
+
+    /** Returns the command line running the class MAINCLASS with ARGS in a
+     *  new JVM with the options JVMOPTIONS and the class path of this one. */
+    static List<String> javaCommand(String mainClass, List<String> jvmOptions, String... args) {
+        List<String> command = new ArrayList<>();
+        command.add(join(System.getProperty("java.home"), "bin", "java").getPath());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass);
+        command.addAll(Arrays.asList(args));
+        return command;
+    }
+
+    /** Runs COMMAND in DIR and returns its wall-clock time in seconds.
+     *  Throws IllegalStateException if the command fails. */
+    static double run(File dir, List<String> command) {
+        long start = System.nanoTime();
+        try {
+            Process p = new ProcessBuilder(command).directory(dir)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            if (p.waitFor() != 0) {
+                throw new IllegalStateException(String.join(" ", command) + " failed");
+            }
+        } catch (IOException | InterruptedException excp) {
+            throw new IllegalStateException(excp.getMessage());
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    /** Runs "java gitlet.Main ARGS" in DIR and returns its wall-clock time
+     *  in seconds. */
+    static double gitlet(File dir, String... args) {
+        return gitlet(dir, List.of(), args);
+    }
+
+    /** Writes N files named PREFIX0, PREFIX1, ... into DIR, each of SIZE
+     *  random printable bytes drawn from RANDOM. */
+    static void writeRandomFiles(File dir, String prefix, int n, int size, Random random) {
+        for (int i = 0; i < n; i += 1) {
+            writeContents(join(dir, prefix + i), randomText(size, random));
+        }
+    }
+
+    /** Returns SIZE random bytes of text, in lines of at most 80 characters. */
+    static byte[] randomText(int size, Random random) {
+        byte[] text = new byte[size];
+        for (int i = 0; i < size; i += 1) {
+            text[i] = (i % 80 == 79) ? (byte) '\n' : (byte) ('a' + random.nextInt(26));
+        }
+        return text;
+    }
+
+    /** Returns the total size in bytes of the files under DIR. */
+    static long diskUsage(File dir) {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            return paths.map(Path::toFile).filter(File::isFile)
+                    .mapToLong(File::length).sum();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
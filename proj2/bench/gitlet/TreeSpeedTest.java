@@ -0,0 +1,63 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Random;
+
+import static gitlet.SpeedTestUtils.*;
+import static gitlet.Utils.*;
+
+/** Measures how the cost of a commit grows with the width of the repo.
+ *  Usage: java gitlet.TreeSpeedTest [WIDTH...]
+ *  for each WIDTH (default 1000, 10000 and 50000), commits WIDTH small
+ *  files in one directory, then makes COMMITS commits that each change
+ *  one file, and reports the time of each such commit and the bytes of
+ *  commits and trees it writes.
+ *  @author Min-Hsiu Hsu
+ */
+public class TreeSpeedTest {
+    /** The number of one-file commits timed for each width. */
+    private static final int COMMITS = 5;
+
+    /** Runs the test.  ARGS are the widths described above. */
+    public static void main(String[] args) {
+        int[] widths = {1000, 10000, 50000};
+        if (args.length > 0) {
+            widths = new int[args.length];
+            for (int i = 0; i < args.length; i += 1) {
+                widths[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.printf("%8s %12s %14s%n", "files", "commit (s)", "bytes/commit");
+        for (int width : widths) {
+            File dir = scratchDir("gitlet-tree");
+            try {
+                gitlet(dir, "init");
+                Random random = new Random(width);
+                writeRandomFiles(dir, "f", width, 64, random);
+                gitlet(dir, "add", ".");
+                gitlet(dir, "commit", "all files");
+
+                double time = 0;
+                long before = storedBytes(dir);
+                for (int c = 0; c < COMMITS; c += 1) {
+                    String name = "f" + random.nextInt(width);
+                    writeContents(join(dir, name), "commit " + c + "\n");
+                    gitlet(dir, "add", name);
+                    time += gitlet(dir, "commit", "change " + name);
+                }
+                long written = storedBytes(dir) - before;
+                System.out.printf("%8d %12.3f %14d%n", width, time / COMMITS, written / COMMITS);
+            } finally {
+                deleteTree(dir);
+            }
+        }
+    }
+
+    /** Returns the bytes taken by the commits and trees of the repo in DIR. */
+    private static long storedBytes(File dir) {
+        File trees = join(dir, ".gitlet", "trees");
+        return diskUsage(join(dir, ".gitlet", "commits"))
+                + (trees.exists() ? diskUsage(trees) : 0);
+    }
+}
@@ -0,0 +1,189 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** Bloom filters of the paths changed by the commits of a repository,
+ *  kept at the same positions as in its commit-graph.  The filter of a
+ *  commit holds every path whose blob differs from its first parent (or
+ *  that it tracks at all, for a root commit), and every directory above
+ *  such a path.  A path that is not in the filter was certainly not
+ *  changed by that commit, so "log -- PATH" only loads the commits whose
+ *  filter may hold PATH.  The place of the filter of every commit is a
+ *  fixed-width record in one append-only file, and the filters themselves
+ *  are appended to a second file.  A record cut short by a crash is cut
+ *  off before the next is appended, and not counted until then.
+ *  @author Min-Hsiu Hsu
+ */
+class ChangedPathFilters {
+    /** File layout: "GLCP" version { filterOffset filterLength }*
+     *  A filterLength of TOO_MANY means the commit changed more than
+     *  MAX_PATHS paths, and has no filter: it may have changed any path. */
+    private static final int MAGIC = 0x474c4350;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_BYTES = 8 + 4;
+    private static final int TOO_MANY = -1;
+
+    /** The bits of filter for each path, giving about 1% false positives. */
+    private static final int BITS_PER_PATH = 10;
+    /** The number of bits set for each path. */
+    private static final int HASHES = 7;
+    /** Commits changing more paths than this get no filter. */
+    static final int MAX_PATHS = 512;
+
+    /** The file storing the fixed-width records. */
+    private final File file;
+    /** The file storing the filters. */
+    private final File filtersFile;
+    /** The memory-mapped records, or null if not mapped yet. */
+    private MappedByteBuffer records;
+    /** The memory-mapped filters, or null if not mapped yet. */
+    private MappedByteBuffer filters;
+
+    /** Filters stored in FILE, with their bits stored in FILTERSFILE. */
+    ChangedPathFilters(File file, File filtersFile) {
+        this.file = file;
+        this.filtersFile = filtersFile;
+    }
+
+    /** Returns the number of commits with a filter. */
+    int size() {
+        return map() ? (records.capacity() - HEADER_BYTES) / RECORD_BYTES : 0;
+    }
+
+    /** Returns false if the commit at position P certainly did not change
+     *  PATH, a file or a directory, or true if it may have. */
+    boolean mightChange(int p, String path) {
+        map();
+        long offset = records.getLong(recordPos(p));
+        int length = records.getInt(recordPos(p) + 8);
+        if (length == TOO_MANY) {
+            return true;
+        }
+        if (length == 0) {
+            return false;
+        }
+        if (filters == null || offset + length > filters.capacity()) {
+            filters = mapFile(filtersFile);
+        }
+        long hash = hash(path);
+        int bits = 8 * length;
+        for (int i = 0; i < HASHES; i += 1) {
+            int bit = bitOf(hash, i, bits);
+            if ((filters.get((int) offset + bit / 8) & (1 << (bit % 8))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Appends the filter of the commit at the next position, which
+     *  changed the paths CHANGED. */
+    void append(Collection<String> changed) {
+        Set<String> keys = new HashSet<>();
+        for (String path : changed) {
+            keys.add(path);
+            for (int i = path.lastIndexOf('/'); i > 0; i = path.lastIndexOf('/', i - 1)) {
+                keys.add(path.substring(0, i));
+            }
+        }
+        byte[] filter = new byte[0];
+        if (keys.size() <= MAX_PATHS) {
+            filter = new byte[(keys.size() * BITS_PER_PATH + 7) / 8];
+            for (String key : keys) {
+                long hash = hash(key);
+                for (int i = 0; i < HASHES; i += 1) {
+                    int bit = bitOf(hash, i, 8 * filter.length);
+                    filter[bit / 8] |= 1 << (bit % 8);
+                }
+            }
+        }
+
+        long offset = filtersFile.length();
+        try (FileOutputStream out = new FileOutputStream(filtersFile, true)) {
+            out.write(filter);
+        } catch (IOException excp) {
+            throw error("Cannot write changed-path filters: %s", excp.getMessage());
+        }
+        boolean fresh = !truncateRecords(file, HEADER_BYTES, RECORD_BYTES);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, true)))) {
+            if (fresh) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            out.writeLong(offset);
+            out.writeInt(keys.size() <= MAX_PATHS ? filter.length : TOO_MANY);
+        } catch (IOException excp) {
+            throw error("Cannot write changed-path filters: %s", excp.getMessage());
+        }
+        records = null;
+    }
+
+    /** Discards the filters of all commits. */
+    void clear() {
+        file.delete();
+        filtersFile.delete();
+        records = null;
+        filters = null;
+    }
+
+    /** Returns the 64-bit FNV-1a hash of the UTF-8 bytes of PATH. */
+    private static long hash(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** Returns the Ith of the HASHES bits, out of BITS, set for a path
+     *  whose hash is HASH, by double hashing its two halves. */
+    private static int bitOf(long hash, int i, int bits) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return Math.floorMod(h1 + i * h2, bits);
+    }
+
+    /** Maps the records into memory if they exist and are not mapped
+     *  yet.  Returns true if the records are mapped. */
+    private boolean map() {
+        if (records != null) {
+            return true;
+        }
+        if (!file.isFile() || file.length() < HEADER_BYTES) {
+            return false;
+        }
+        records = mapFile(file);
+        if (records.getInt(0) != MAGIC || records.getInt(4) != VERSION) {
+            throw error("Corrupted changed-path filters: %s", file);
+        }
+        return true;
+    }
+
+    /** Returns the contents of F mapped into memory. */
+    private static MappedByteBuffer mapFile(File f) {
+        try (FileChannel ch = FileChannel.open(f.toPath())) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw error("Corrupted changed-path filters: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the position in the file of the record of commit P. */
+    private static int recordPos(int p) {
+        return HEADER_BYTES + p * RECORD_BYTES;
+    }
+}
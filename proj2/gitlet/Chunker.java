@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/** Splits a stream into content-defined chunks.
+ *  A gear hash rolls over the bytes, each byte shifting the hash left and
+ *  adding a random value for that byte, so the top bits of the hash
+ *  depend only on the last 64 bytes.  A chunk ends where those bits are
+ *  all zero, which is where the content says, not where an offset does:
+ *  an edit only moves the boundaries next to it, and the chunks before
+ *  and after it are the same as they were.  Chunks are between MIN_SIZE
+ *  and MAX_SIZE bytes, about MIN_SIZE + 2^MASK_BITS (10 KiB) on average.
+ *  @author Min-Hsiu Hsu
+ */
+class Chunker {
+    /** The smallest chunk, save for the last one. */
+    static final int MIN_SIZE = 1 << 11;
+    /** The largest chunk. */
+    static final int MAX_SIZE = 1 << 16;
+
+    /** A chunk ends where the top MASK_BITS bits of the hash are zero,
+     *  which is once every 2^MASK_BITS bytes on average. */
+    private static final int MASK_BITS = 13;
+    private static final long MASK = -1L << (Long.SIZE - MASK_BITS);
+
+    /** The value added to the hash for each byte.  Fixed, so the same
+     *  content is cut in the same places by every gitlet. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** The stream being split. */
+    private final InputStream in;
+    /** The bytes read from IN and not yet returned, from START to END. */
+    private final byte[] buffer = new byte[2 * MAX_SIZE];
+    private int start;
+    private int end;
+    /** The length of the chunk returned last. */
+    private int length;
+    /** True once IN is exhausted. */
+    private boolean eof;
+
+    /** A chunker of the stream IN. */
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Moves on to the next chunk and returns its length, or 0 at the end
+     *  of the stream.  The chunk is in buffer() from offset(), until the
+     *  next call. */
+    int next() throws IOException {
+        start += length;
+        if (end - start < MAX_SIZE && !eof) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            while (end < buffer.length) {
+                int n = in.read(buffer, end, buffer.length - end);
+                if (n < 0) {
+                    eof = true;
+                    break;
+                }
+                end += n;
+            }
+        }
+        length = cut(buffer, start, Math.min(end - start, MAX_SIZE));
+        return length;
+    }
+
+    /** Returns the buffer holding the current chunk. */
+    byte[] buffer() {
+        return buffer;
+    }
+
+    /** Returns the offset of the current chunk in buffer(). */
+    int offset() {
+        return start;
+    }
+
+    /** Returns the length of the first chunk of the N bytes of B from OFF. */
+    static int cut(byte[] b, int off, int n) {
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        long hash = 0;
+        for (int i = MIN_SIZE; i < n; i += 1) {
+            hash = (hash << 1) + GEAR[b[off + i] & 0xff];
+            if ((hash & MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,89 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+import static gitlet.Utils.*;
+
+/** A thin client of the gitlet daemon.
+ *  Usage: java gitlet.Client ARGS, with the same ARGS as gitlet.Main.
+ *  Sends ARGS to the daemon serving the repo in the current directory,
+ *  and copies the output of the command to its own as it arrives.  If no
+ *  daemon is running, it runs the command itself, as gitlet.Main would.
+ *  @author Min-Hsiu Hsu
+ */
+public class Client {
+
+    /** Runs the command ARGS through the daemon, or in this process. */
+    public static void main(String[] args) {
+        Integer status = forward(Repository.DAEMON_FILE, args);
+        if (status == null) {
+            Main.main(args);
+        } else if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /** Asks the daemon serving the current repo to stop. */
+    static void stop() {
+        if (forward(Repository.DAEMON_FILE, "daemon", "stop") == null) {
+            errorExit("No gitlet daemon is running.");
+        }
+    }
+
+    /** Sends the command ARGS to the daemon listening on the socket
+     *  DAEMONFILE, and copies its output to System.out and System.err.
+     *  Returns the exit status of the command, or null if no daemon could
+     *  be reached. */
+    static Integer forward(File daemonFile, String... args) {
+        if (!daemonFile.exists()) {
+            return null;
+        }
+        SocketChannel socket;
+        try {
+            socket = SocketChannel.open(UnixDomainSocketAddress.of(daemonFile.toPath()));
+        } catch (IOException excp) {
+            return null;
+        }
+
+        try (socket) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(socket)));
+            writeVarint(out, args.length);
+            for (String arg : args) {
+                writeString(out, arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(socket), BUFFER_SIZE));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (true) {
+                byte type = in.readByte();
+                if (type == Server.END) {
+                    System.out.flush();
+                    return readVarint(in);
+                }
+                PrintStream dest = type == Server.ERR ? System.err : System.out;
+                for (int left = readVarint(in); left > 0; ) {
+                    int n = in.read(buffer, 0, Math.min(left, buffer.length));
+                    if (n < 0) {
+                        throw new IOException("connection closed");
+                    }
+                    dest.write(buffer, 0, n);
+                    left -= n;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Lost the gitlet daemon: %s", excp.getMessage());
+        }
+    }
+}
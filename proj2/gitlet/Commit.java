@@ -1,16 +1,33 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.io.Serializable;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
-import java.text.SimpleDateFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.TreeMap;
 import static gitlet.Utils.*;
 
 /** Represents a Gitlet commit object.
  *  A commit object persistently stores the data
  *  for a git commit, which can be saved and loaded
- *  from disk.
+ *  from disk.  A commit is saved in a binary encoding, and its id is
+ *  the SHA-1 hash of that encoding.  A commit names the Tree of its
+ *  files, which it shares with its parent wherever they agree, and
+ *  flattens that tree into a map of its files only when they are asked
+ *  for.  Commits saved by an earlier version of the encoding, which
+ *  listed every file, or by Java serialization before there was an
+ *  encoding, can still be loaded, so that Repository can migrate them.
  *  @author Min-Hsiu Hsu
  */
 public class Commit implements Serializable, Dumpable {
@@ -20,6 +37,7 @@ public class Commit implements Serializable, Dumpable {
      * 2. date: the date of the commit.
      * 3. commitMsg: the description of the commit.
      * 4. blobs: a list of the references of committed files.
+     * 5. tree: the id of the Tree of the committed files.
      */
 
     /** The message of this Commit. */
@@ -28,50 +46,234 @@ public class Commit implements Serializable, Dumpable {
     private Date date;
     private String commitMsg;
     private TreeMap<String, File> blobs;
+    /** The id of the tree of this commit, or null if it has no files;
+     *  only meaningful when VERSION is TREE_VERSION. */
+    private transient String tree;
+    /** The version of the encoding of this commit: FLAT_VERSION for a
+     *  commit that lists its files, TREE_VERSION for one that names their
+     *  tree, or 0 for one saved by Java serialization, which lists them. */
+    private transient int version;
+    /** The id of this commit and its size, while it is in the cache. */
+    private transient String cachedId;
+    private transient int cachedSize;
+
+    /** Pinned so that commits saved by earlier versions of this class still load. */
+    private static final long serialVersionUID = 8266034131836770543L;
+
+    /** Encoding: "GLCM" version parentId mergeParentId date message treeId,
+     *  or, in FLAT_VERSION, "GLCM" version parentId mergeParentId date
+     *  message blobCount { fileName blobId }*, where ids are written by
+     *  Utils.writeUid and strings by Utils.writeString. */
+    static final int MAGIC = 0x474c434d;
+    private static final int FLAT_VERSION = 1;
+    private static final int TREE_VERSION = 2;
+
+    /** The format of dates in logs. */
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z");
+
+    /** The bound on the size of the cache of loaded commits, counted
+     *  as one for each commit plus one for each of its files. */
+    static final int MAX_CACHED_ENTRIES = 1 << 17;
+
+    /** The commits loaded by this process, by id, least recently used
+     *  first.  Commits never change, so an entry never goes stale. */
+    private static final LinkedHashMap<String, Commit> CACHE =
+            new LinkedHashMap<>(16, 0.75f, true);
+    /** The size of CACHE, as counted for MAX_CACHED_ENTRIES. */
+    private static int cachedEntries;
+    /** The number of loads found in, and not found in, CACHE. */
+    private static long cacheHits;
+    private static long cacheMisses;
 
     Commit() {
-        this.date = new Date(0);
-        this.commitMsg = "initial commit";
-        this.blobs = new TreeMap<>();
+        this(null, null, new Date(0), "initial commit", (String) null);
+    }
+
+    /** A new commit of the files of the tree TREE, or of no files if TREE is null. */
+    Commit(File parentFile, File mergeParentFile, String commitMsg, String tree) {
+        this(parentFile, mergeParentFile, new Date(), commitMsg, tree);
     }
 
-    Commit(File parentFile, String commitMsg, TreeMap<String, File> blobs) {
+    /** A commit of the files of the tree TREE with all of its data given. */
+    Commit(File parentFile, File mergeParentFile, Date date, String commitMsg, String tree) {
         this.parentFile = parentFile;
-        this.date = new Date();
+        this.mergeParentFile = mergeParentFile;
+        this.date = date;
         this.commitMsg = commitMsg;
-        this.blobs = blobs;
+        this.tree = tree;
+        this.version = TREE_VERSION;
     }
 
-    Commit(File parentFile, File mergeParentFile, String commitMsg, TreeMap<String, File> blobs) {
+    /** A commit listing all of its files, BLOBS, with all of its data
+     *  given, for rewriting an existing commit. */
+    Commit(File parentFile, File mergeParentFile, Date date, String commitMsg,
+           TreeMap<String, File> blobs) {
         this.parentFile = parentFile;
         this.mergeParentFile = mergeParentFile;
-        this.date = new Date();
+        this.date = date;
         this.commitMsg = commitMsg;
         this.blobs = blobs;
+        this.version = FLAT_VERSION;
     }
 
-
     /** Saves this commit as a persistent file,
      * and returns the File of this commit.
      */
     public File saveCommit() {
-        File commitFile = join(Repository.COMMIT_DIR, getSha1());
-        writeObject(commitFile, this);
+        byte[] encoded = encode();
+        File commitFile = join(Repository.COMMIT_DIR, sha1(encoded));
+        writeContents(commitFile, encoded);
         return commitFile;
     }
 
-    /** Loads a saved commit. */
+    /** Loads a saved commit.  Commits are shared through a cache, so the
+     *  commit returned must not be modified. */
     public static Commit loadCommit(File commitFile) {
         if (commitFile == null) {
             return null;
         }
-        return readObject(commitFile, Commit.class);
+        String id = commitFile.getName();
+        synchronized (CACHE) {
+            Commit cached = CACHE.get(id);
+            if (cached != null) {
+                cacheHits += 1;
+                return cached;
+            }
+            cacheMisses += 1;
+        }
+        Commit c = readCommit(commitFile);
+        cache(id, c);
+        return c;
+    }
+
+    /** Reads the saved commit COMMITFILE, bypassing the cache. */
+    static Commit readCommit(File commitFile) {
+        byte[] bytes = ObjectStore.read(commitFile);
+        return isJavaSerialized(bytes) ? deserialize(bytes, Commit.class) : decode(bytes);
+    }
+
+    /** Adds C, whose id is ID, to the cache of loaded commits, evicting
+     *  the least recently used ones to keep within MAX_CACHED_ENTRIES. */
+    private static void cache(String id, Commit c) {
+        synchronized (CACHE) {
+            Commit old = CACHE.put(id, c);
+            if (old != null) {
+                cachedEntries -= old.cachedSize;
+                old.cachedId = null;
+            }
+            c.cachedId = id;
+            c.cachedSize = c.cacheSize();
+            cachedEntries += c.cachedSize;
+            evict();
+        }
+    }
+
+    /** Counts the files of this commit, once loaded from its tree, in
+     *  the size of the cache if this commit is in it. */
+    private void resize() {
+        synchronized (CACHE) {
+            if (cachedId != null) {
+                cachedEntries += cacheSize() - cachedSize;
+                cachedSize = cacheSize();
+                evict();
+            }
+        }
+    }
+
+    /** Evicts the least recently used commits from the cache until it is
+     *  within MAX_CACHED_ENTRIES.  Must hold the lock on CACHE. */
+    private static void evict() {
+        Iterator<Commit> eldest = CACHE.values().iterator();
+        while (cachedEntries > MAX_CACHED_ENTRIES && CACHE.size() > 1) {
+            Commit c = eldest.next();
+            cachedEntries -= c.cachedSize;
+            c.cachedId = null;
+            eldest.remove();
+        }
+    }
+
+    /** Returns the size of this commit, as counted for MAX_CACHED_ENTRIES. */
+    private int cacheSize() {
+        return 1 + (blobs == null ? 0 : blobs.size());
+    }
+
+    /** Returns the hits, misses and size of the cache of loaded commits. */
+    static String cacheStats() {
+        synchronized (CACHE) {
+            return String.format("commit cache: %d hits, %d misses, %d commits (%d entries)",
+                    cacheHits, cacheMisses, CACHE.size(), cachedEntries);
+        }
     }
 
     /** Returns the hash code of this commit. */
     public String getSha1() {
-        byte[] serializedCommit = serialize(this);
-        return sha1(serializedCommit);
+        return sha1(encode());
+    }
+
+    /** Returns the binary encoding of this commit. */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(isFlat() ? FLAT_VERSION : TREE_VERSION);
+            writeUid(out, idOf(parentFile));
+            writeUid(out, idOf(mergeParentFile));
+            out.writeLong(date.getTime());
+            writeString(out, commitMsg);
+            if (!isFlat()) {
+                writeUid(out, tree);
+                return bytes.toByteArray();
+            }
+            writeVarint(out, blobs.size());
+            for (Map.Entry<String, File> e : blobs.entrySet()) {
+                writeString(out, e.getKey());
+                writeUid(out, e.getValue().getName());
+            }
+        } catch (IOException excp) {
+            throw error("Internal error encoding commit.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the commit whose binary encoding is BYTES. */
+    static Commit decode(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC) {
+                throw error("Corrupted commit: unknown format");
+            }
+            int version = in.readUnsignedByte();
+            if (version != FLAT_VERSION && version != TREE_VERSION) {
+                throw error("Corrupted commit: unknown format");
+            }
+            File parent = fileOf(in);
+            File mergeParent = fileOf(in);
+            Date date = new Date(in.readLong());
+            String commitMsg = readString(in);
+            if (version == TREE_VERSION) {
+                return new Commit(parent, mergeParent, date, commitMsg, readUid(in));
+            }
+            TreeMap<String, File> blobs = new TreeMap<>();
+            for (int n = readVarint(in); n > 0; n -= 1) {
+                String fileName = readString(in);
+                blobs.put(fileName, new File(Repository.OBJECT_DIR, readUid(in)));
+            }
+            return new Commit(parent, mergeParent, date, commitMsg, blobs);
+        } catch (IOException excp) {
+            throw error("Corrupted commit: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the id of the commit F, or null if F is null. */
+    private static String idOf(File f) {
+        return f == null ? null : f.getName();
+    }
+
+    /** Reads a commit id from IN and returns the File of that commit, or
+     *  null if there is none. */
+    private static File fileOf(DataInputStream in) throws IOException {
+        String id = readUid(in);
+        return id == null ? null : new File(Repository.COMMIT_DIR, id);
     }
 
     /** Returns the File of the parent of this commit. */
@@ -84,41 +286,70 @@ public class Commit implements Serializable, Dumpable {
         return mergeParentFile;
     }
 
+    /** Returns the date of this commit. */
+    public Date getDate() {
+        return date;
+    }
+
     /** Returns the commitMsg of this commit. */
     public String getCommitMsg() {
         return commitMsg;
     }
 
-    /** Returns the blobs of this commit. */
+    /** Returns the blobs of this commit, which must not be modified. */
     public TreeMap<String, File> getBlobs() {
+        if (blobs == null) {
+            blobs = Tree.read(tree);
+            resize();
+        }
         return blobs;
     }
 
+    /** Returns true if this commit lists its files rather than naming
+     *  their tree, as commits saved before there were trees do. */
+    boolean isFlat() {
+        return version != TREE_VERSION;
+    }
+
+    /** Returns the id of the tree of the files of this commit, or null if
+     *  it has none.  The tree of a flat commit is saved first. */
+    String getTree() {
+        if (isFlat() && tree == null) {
+            tree = Tree.update(null, blobs);
+        }
+        return tree;
+    }
+
     /** Prints the log od this commit. */
     public void printLog() {
-        String pattern = "EEE MMM d HH:mm:ss yyyy Z";
-        SimpleDateFormat dateFormatter = new SimpleDateFormat(pattern);
+        printLog(System.out, getSha1(), idOf(parentFile), idOf(mergeParentFile),
+                date.getTime(), commitMsg);
+    }
 
-        System.out.println("===");
-        System.out.println("commit " + getSha1());
+    /** Prints to OUT the log of the commit ID made at DATE (ms) with
+     *  COMMITMSG.  PARENTID and MERGEPARENTID are only shown for a merged
+     *  commit, that is when MERGEPARENTID is not null. */
+    static void printLog(PrintStream out, String id, String parentId, String mergeParentId,
+                         long date, String commitMsg) {
+        out.println("===");
+        out.println("commit " + id);
         /* Prints two parents for a merged commit. */
-        if (mergeParentFile != null) {
-            String parentCommitId = loadCommit(parentFile).getSha1();
-            String mergeParentCommitId = loadCommit(mergeParentFile).getSha1();
-            System.out.println("Merge: "
-                    + parentCommitId.substring(0, 7)
+        if (mergeParentId != null) {
+            out.println("Merge: "
+                    + parentId.substring(0, 7)
                     + " "
-                    + mergeParentCommitId.substring(0, 7));
+                    + mergeParentId.substring(0, 7));
         }
-        System.out.println("Date: " + dateFormatter.format(date));
-        System.out.println(commitMsg);
-        System.out.println();
+        out.println("Date: " + DATE_FORMAT.format(
+                Instant.ofEpochMilli(date).atZone(ZoneId.systemDefault())));
+        out.println(commitMsg);
+        out.println();
     }
 
     /** Prints info about this commit by DumpObj class. */
     @Override
     public void dump() {
-        System.out.printf("parentFile: %s%ndate: %s%ncommitMsg %s%nblobsKey: %s%n",
-                parentFile, date, commitMsg, blobs.keySet());
+        System.out.printf("parentFile: %s%ndate: %s%ncommitMsg %s%nblobsKey: %s%n%s%n",
+                parentFile, date, commitMsg, getBlobs().keySet(), cacheStats());
     }
 }
@@ -0,0 +1,240 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.BufferedOutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/** Represents the commit-graph of a Gitlet repository.
+ *  Every commit gets a position in an append-only file of fixed-width
+ *  records, holding its id, the positions of its parents, and its
+ *  generation number (one more than the largest generation of its parents).
+ *  Ancestry questions are then answered by walking integers instead of
+ *  deserializing Commit objects.  Ids are mapped to positions by a
+ *  CommitIdIndex kept next to the graph.  A record cut short by a crash
+ *  is cut off before the next is appended.
+ *  @author Min-Hsiu Hsu
+ */
+class CommitGraph {
+    /** Parent position of a commit without that parent. */
+    static final int NONE = -1;
+
+    /** File layout: "GLCG" version { id parent mergeParent generation }* */
+    private static final int MAGIC = 0x474c4347;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int RECORD_BYTES = ID_BYTES + 3 * 4;
+
+    /** The file storing this graph. */
+    private final File file;
+    /** The memory-mapped records, or null if not mapped yet. */
+    private MappedByteBuffer records;
+    /** The sorted index from commit ids to positions. */
+    private final CommitIdIndex ids;
+
+    /** A commit-graph stored in FILE, with its id index stored in IDSFILE. */
+    CommitGraph(File file, File idsFile) {
+        this.file = file;
+        this.ids = new CommitIdIndex(idsFile);
+    }
+
+    /** Returns true if this graph has been written to disk. */
+    boolean exists() {
+        return file.isFile();
+    }
+
+    /** Discards all the commits of this graph. */
+    void clear() {
+        file.delete();
+        records = null;
+        ids.rewrite(new HashMap<>());
+    }
+
+    /** Returns the number of commits in this graph. */
+    int size() {
+        return map() ? (records.capacity() - HEADER_BYTES) / RECORD_BYTES : 0;
+    }
+
+    /** Returns the position of the commit ID, or NONE if it is not in this graph. */
+    int position(String id) {
+        int p = idIndex().lookup(id);
+        return p < size() ? p : NONE;
+    }
+
+    /** Returns the ids of the commits in this graph starting with PREFIX,
+     *  at most LIMIT of them. */
+    List<String> idsWithPrefix(String prefix, int limit) {
+        return idIndex().matches(prefix, limit);
+    }
+
+    /** Returns the id index of this graph, rebuilding it from the graph
+     *  records if it was never written. */
+    private CommitIdIndex idIndex() {
+        if (!ids.exists()) {
+            HashMap<String, Integer> positions = new HashMap<>();
+            for (int p = 0; p < size(); p += 1) {
+                positions.put(id(p), p);
+            }
+            ids.rewrite(positions);
+        }
+        return ids;
+    }
+
+    /** Returns the id of the commit at position P. */
+    String id(int p) {
+        map();
+        byte[] id = new byte[ID_BYTES];
+        int pos = recordPos(p);
+        for (int k = 0; k < ID_BYTES; k += 1) {
+            id[k] = records.get(pos + k);
+        }
+        return bytesToUid(id, 0, ID_BYTES);
+    }
+
+    /** Returns the position of the first parent of the commit at P, or NONE. */
+    int parent(int p) {
+        map();
+        return records.getInt(recordPos(p) + ID_BYTES);
+    }
+
+    /** Returns the position of the merged-in parent of the commit at P, or NONE. */
+    int mergeParent(int p) {
+        map();
+        return records.getInt(recordPos(p) + ID_BYTES + 4);
+    }
+
+    /** Returns the generation number of the commit at P. */
+    int generation(int p) {
+        map();
+        return records.getInt(recordPos(p) + ID_BYTES + 8);
+    }
+
+    /** Appends the commit ID with parents PARENTID and MERGEPARENTID, either
+     *  of which may be null, and returns its position.  The parents must
+     *  already be in this graph. */
+    int append(String id, String parentId, String mergeParentId) {
+        int existing = position(id);
+        if (existing != NONE) {
+            return existing;
+        }
+        int parent = parentId == null ? NONE : position(parentId);
+        int mergeParent = mergeParentId == null ? NONE : position(mergeParentId);
+        int generation = 1;
+        if (parent != NONE) {
+            generation = Math.max(generation, generation(parent) + 1);
+        }
+        if (mergeParent != NONE) {
+            generation = Math.max(generation, generation(mergeParent) + 1);
+        }
+
+        int p = size();
+        boolean fresh = !truncateRecords(file, HEADER_BYTES, RECORD_BYTES);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, true)))) {
+            if (fresh) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            out.write(uidToBytes(id));
+            out.writeInt(parent);
+            out.writeInt(mergeParent);
+            out.writeInt(generation);
+        } catch (IOException excp) {
+            throw error("Cannot write commit-graph: %s", excp.getMessage());
+        }
+        records = null;
+        idIndex().insert(id, p);
+        return p;
+    }
+
+    /** Returns true if the commit at A is the commit at B or one of its
+     *  ancestors.  Commits with a generation below that of A are not walked. */
+    boolean isAncestor(int a, int b) {
+        int minGeneration = generation(a);
+        BitSet visited = new BitSet(size());
+        Deque<Integer> fringe = new ArrayDeque<>();
+        fringe.push(b);
+        while (!fringe.isEmpty()) {
+            int p = fringe.pop();
+            if (p == a) {
+                return true;
+            }
+            if (p == NONE || visited.get(p) || generation(p) <= minGeneration) {
+                continue;
+            }
+            visited.set(p);
+            fringe.push(parent(p));
+            fringe.push(mergeParent(p));
+        }
+        return false;
+    }
+
+    /** Returns the position of the latest common ancestor of the commits
+     *  at A and B, or NONE if they have none.  Both sides are painted down
+     *  in decreasing generation order, so the first commit reached by both
+     *  is a common ancestor with the largest generation number. */
+    int mergeBase(int a, int b) {
+        byte[] flags = new byte[size()];
+        BitSet visited = new BitSet(size());
+        PriorityQueue<Integer> fringe = new PriorityQueue<>(
+                (x, y) -> Integer.compare(generation(y), generation(x)));
+        flags[a] |= 1;
+        flags[b] |= 2;
+        fringe.add(a);
+        fringe.add(b);
+        while (!fringe.isEmpty()) {
+            int p = fringe.remove();
+            if (visited.get(p)) {
+                continue;
+            }
+            visited.set(p);
+            if (flags[p] == 3) {
+                return p;
+            }
+            for (int q : new int[] {parent(p), mergeParent(p)}) {
+                if (q != NONE && (flags[q] | flags[p]) != flags[q]) {
+                    flags[q] |= flags[p];
+                    fringe.add(q);
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /** Maps the file of this graph into memory if needed.  Returns false if
+     *  there is no file yet. */
+    private boolean map() {
+        if (records != null) {
+            return true;
+        }
+        if (!file.isFile() || file.length() < HEADER_BYTES) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(file.toPath())) {
+            records = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw error("Corrupted commit-graph: %s", excp.getMessage());
+        }
+        if (records.getInt(0) != MAGIC || records.getInt(4) != VERSION) {
+            throw error("Corrupted commit-graph: %s", file);
+        }
+        return true;
+    }
+
+    /** Returns the position in the file of the record of commit P. */
+    private static int recordPos(int p) {
+        return HEADER_BYTES + p * RECORD_BYTES;
+    }
+}
@@ -0,0 +1,312 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.BufferedOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/** A persistent index of commit ids sorted for binary search.
+ *  Each record maps a commit id to its position in the commit-graph,
+ *  so that full ids and abbreviated ids are both resolved in O(log n)
+ *  without listing the commits directory.  New ids go to a second,
+ *  small sorted run of at most MAX_TAIL records in a file of its own,
+ *  which is binary-searched too, and merged into the main file once it
+ *  is full; so a commit rewrites only the small run, and only every
+ *  MAX_TAIL commits rewrite the main file.  The main file is replaced by
+ *  a rename, and the small run is written in place under a checksum; an
+ *  index whose files do not add up, as after a crash while writing the
+ *  small run, is rebuilt from the commit-graph like a missing one.
+ *  @author Min-Hsiu Hsu
+ */
+class CommitIdIndex {
+    /** File layout: "GLCI" version count { id position }*, sorted by id.
+     *  Small run layout: count crc { id position }*, also sorted by id,
+     *  where crc is the CRC-32 of the records. */
+    private static final int MAGIC = 0x474c4349;
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 12;
+    private static final int TAIL_HEADER_BYTES = 8;
+    /** The most records in the small run. */
+    static final int MAX_TAIL = 1024;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int RECORD_BYTES = ID_BYTES + 4;
+
+    /** The file storing the main run of this index. */
+    private final File file;
+    /** The file storing the small run of this index. */
+    private final File tailFile;
+    /** The memory-mapped main run, or null if not mapped yet. */
+    private ByteBuffer records;
+    /** The small run, loaded with the main run. */
+    private ByteBuffer tail;
+
+    /** An index stored in FILE, and in FILE.tail. */
+    CommitIdIndex(File file) {
+        this.file = file;
+        this.tailFile = new File(file.getPath() + ".tail");
+    }
+
+    /** Returns true if this index has been written to disk, in the
+     *  current version of its layout. */
+    boolean exists() {
+        return map();
+    }
+
+    /** Replaces all the records of this index by POSITIONS, which maps
+     *  commit ids to their positions. */
+    void rewrite(Map<String, Integer> positions) {
+        List<String> ids = new ArrayList<>(positions.keySet());
+        ids.sort(null);
+        ByteBuffer run = ByteBuffer.allocate(ids.size() * RECORD_BYTES);
+        for (String id : ids) {
+            run.put(uidToBytes(id)).putInt(positions.get(id));
+        }
+        writeMain(ByteBuffer.allocate(0), 0, run.clear());
+    }
+
+    /** Replaces the main run of this index by the records of A from
+     *  ABASE and those of B, two sorted runs, merged without repeated ids,
+     *  and empties the small run. */
+    private void writeMain(ByteBuffer a, int aBase, ByteBuffer b) {
+        int n = (a.capacity() - aBase) / RECORD_BYTES;
+        int m = b.capacity() / RECORD_BYTES;
+        Path tmp = new File(file.getPath() + ".tmp").toPath();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp.toFile())))) {
+            byte[] record = new byte[RECORD_BYTES];
+            byte[] last = null;
+            int count = 0;
+            ByteBuffer merged = ByteBuffer.allocate((n + m) * RECORD_BYTES);
+            for (int i = 0, j = 0; i < n || j < m; ) {
+                boolean fromA = j == m || (i < n && compare(a, aBase + i * RECORD_BYTES,
+                        idBytes(b, j * RECORD_BYTES)) <= 0);
+                if (fromA) {
+                    a.get(aBase + i * RECORD_BYTES, record);
+                    i += 1;
+                } else {
+                    b.get(j * RECORD_BYTES, record);
+                    j += 1;
+                }
+                if (last == null || compare(ByteBuffer.wrap(record), 0, last) != 0) {
+                    merged.put(record);
+                    last = record.clone();
+                    count += 1;
+                }
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.write(merged.array(), 0, count * RECORD_BYTES);
+        } catch (IOException excp) {
+            throw error("Cannot write commit index: %s", excp.getMessage());
+        }
+        replace(tmp, file);
+        tailFile.delete();
+        records = null;
+        tail = null;
+    }
+
+    /** Returns the number of ids in this index. */
+    int size() {
+        return map() ? mainSize() + tailSize() : 0;
+    }
+
+    /** Returns the position of the commit ID, or CommitGraph.NONE if ID is
+     *  not in this index. */
+    int lookup(String id) {
+        if (id.length() != UID_LENGTH || !map()) {
+            return CommitGraph.NONE;
+        }
+        byte[] key = uidToBytes(id);
+        int i = lowerBound(records, HEADER_BYTES, mainSize(), key);
+        if (i < mainSize() && compare(records, HEADER_BYTES + i * RECORD_BYTES, key) == 0) {
+            return records.getInt(HEADER_BYTES + i * RECORD_BYTES + ID_BYTES);
+        }
+        i = lowerBound(tail, 0, tailSize(), key);
+        if (i < tailSize() && compare(tail, i * RECORD_BYTES, key) == 0) {
+            return tail.getInt(i * RECORD_BYTES + ID_BYTES);
+        }
+        return CommitGraph.NONE;
+    }
+
+    /** Returns the full ids starting with the hexadecimal PREFIX, at most
+     *  LIMIT of them, in sorted order. */
+    List<String> matches(String prefix, int limit) {
+        prefix = prefix.toLowerCase();
+        if (prefix.length() > UID_LENGTH || !prefix.matches("[0-9a-f]*") || !map()) {
+            return new ArrayList<>();
+        }
+        byte[] key = uidToBytes(prefix + "0".repeat(UID_LENGTH - prefix.length()));
+        TreeSet<String> result = new TreeSet<>();
+        addMatches(records, HEADER_BYTES, mainSize(), key, prefix, limit, result);
+        addMatches(tail, 0, tailSize(), key, prefix, limit, result);
+        List<String> ids = new ArrayList<>(result);
+        return ids.subList(0, Math.min(limit, ids.size()));
+    }
+
+    /** Inserts the commit ID at POSITION into the small run, or merges
+     *  both runs with it into the main one if the small run is full. */
+    void insert(String id, int position) {
+        if (!exists()) {
+            rewrite(Map.of(id, position));
+            return;
+        }
+        int k = lowerBound(tail, 0, tailSize(), uidToBytes(id)) * RECORD_BYTES;
+        ByteBuffer run = ByteBuffer.allocate(tail.capacity() + RECORD_BYTES);
+        run.put(tail.duplicate().limit(k));
+        run.put(uidToBytes(id)).putInt(position);
+        run.put(tail.duplicate().position(k));
+        run.clear();
+        if (tailSize() >= MAX_TAIL) {
+            writeMain(records, HEADER_BYTES, run);
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(run.array());
+        ByteBuffer contents = ByteBuffer.allocate(TAIL_HEADER_BYTES + run.capacity());
+        contents.putInt(run.capacity() / RECORD_BYTES).putInt((int) crc.getValue()).put(run.duplicate());
+        try (RandomAccessFile out = new RandomAccessFile(tailFile, "rw")) {
+            out.write(contents.array());
+            out.setLength(contents.capacity());
+        } catch (IOException excp) {
+            throw error("Cannot write commit index: %s", excp.getMessage());
+        }
+        tail = run;
+    }
+
+    /** Returns the number of records in the main run. */
+    private int mainSize() {
+        return (records.capacity() - HEADER_BYTES) / RECORD_BYTES;
+    }
+
+    /** Returns the number of records in the small run. */
+    private int tailSize() {
+        return tail.capacity() / RECORD_BYTES;
+    }
+
+    /** Adds to RESULT the ids starting with PREFIX among the N sorted
+     *  records of BUF from BASE, at most LIMIT of them.  KEY is PREFIX
+     *  padded with zeros, as a binary id. */
+    private static void addMatches(ByteBuffer buf, int base, int n, byte[] key,
+                                   String prefix, int limit, TreeSet<String> result) {
+        int added = 0;
+        for (int i = lowerBound(buf, base, n, key); i < n && added < limit; i += 1) {
+            String id = idAt(buf, base + i * RECORD_BYTES);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+            added += 1;
+        }
+    }
+
+    /** Returns the number of the first of the N sorted records of BUF
+     *  from BASE whose id is not less than KEY, or N if there is none. */
+    private static int lowerBound(ByteBuffer buf, int base, int n, byte[] key) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(buf, base + mid * RECORD_BYTES, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compares the id at POS in BUF with the binary id KEY as unsigned bytes. */
+    private static int compare(ByteBuffer buf, int pos, byte[] key) {
+        for (int k = 0; k < ID_BYTES; k += 1) {
+            int cmp = (buf.get(pos + k) & 0xff) - (key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the hexadecimal id at POS in BUF. */
+    private static String idAt(ByteBuffer buf, int pos) {
+        byte[] id = idBytes(buf, pos);
+        return bytesToUid(id, 0, ID_BYTES);
+    }
+
+    /** Returns the binary id at POS in BUF. */
+    private static byte[] idBytes(ByteBuffer buf, int pos) {
+        byte[] id = new byte[ID_BYTES];
+        buf.get(pos, id);
+        return id;
+    }
+
+    /** Renames TMP over DEST at once. */
+    private static void replace(Path tmp, File dest) {
+        try {
+            Files.move(tmp, dest.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("Cannot write commit index: %s", excp.getMessage());
+        }
+    }
+
+    /** Maps the main run of this index into memory and loads the small
+     *  run, if needed.  Returns false if there is no index yet, or only
+     *  one in an older layout or whose files do not add up, which is then
+     *  rewritten like a missing one. */
+    private boolean map() {
+        if (records != null) {
+            return true;
+        }
+        if (!file.isFile()) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(file.toPath())) {
+            records = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw error("Corrupted commit index: %s", excp.getMessage());
+        }
+        if (records.capacity() < HEADER_BYTES || records.getInt(0) != MAGIC) {
+            throw error("Corrupted commit index: %s", file);
+        }
+        tail = loadTail();
+        if (tail == null || records.getInt(4) != VERSION || records.getInt(8) != mainSize()
+                || (records.capacity() - HEADER_BYTES) % RECORD_BYTES != 0) {
+            records = null;
+            tail = null;
+            return false;
+        }
+        return true;
+    }
+
+    /** Returns the records of the small run, or null if its file was
+     *  cut short or does not match its checksum. */
+    private ByteBuffer loadTail() {
+        if (!tailFile.isFile()) {
+            return ByteBuffer.allocate(0);
+        }
+        ByteBuffer contents = ByteBuffer.wrap(readContents(tailFile));
+        if (contents.capacity() < TAIL_HEADER_BYTES
+                || contents.capacity() != TAIL_HEADER_BYTES + contents.getInt(0) * RECORD_BYTES) {
+            return null;
+        }
+        ByteBuffer run = contents.position(TAIL_HEADER_BYTES).slice();
+        CRC32 crc = new CRC32();
+        crc.update(run.duplicate());
+        return (int) crc.getValue() == contents.getInt(4) ? run : null;
+    }
+}
@@ -0,0 +1,131 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import static gitlet.Utils.*;
+
+/** A cache of the dates and messages of the commits of a repository,
+ *  kept at the same positions as in its commit-graph.  The date and the
+ *  place of the message of every commit are fixed-width records in one
+ *  append-only file, and the messages themselves are appended to a
+ *  second file, so the header of any commit is read in constant time
+ *  without loading the commit and its blob map.  A record cut short by a
+ *  crash is cut off before the next is appended.
+ *  @author Min-Hsiu Hsu
+ */
+class CommitMetadata {
+    /** File layout: "GLMD" version { date messageOffset messageLength }* */
+    private static final int MAGIC = 0x474c4d44;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_BYTES = 8 + 8 + 4;
+
+    /** The file storing the fixed-width records. */
+    private final File file;
+    /** The file storing the messages. */
+    private final File messagesFile;
+    /** The memory-mapped records, or null if not mapped yet. */
+    private MappedByteBuffer records;
+    /** The memory-mapped messages, or null if not mapped yet. */
+    private MappedByteBuffer messages;
+
+    /** A cache stored in FILE, with its messages stored in MESSAGESFILE. */
+    CommitMetadata(File file, File messagesFile) {
+        this.file = file;
+        this.messagesFile = messagesFile;
+    }
+
+    /** Returns the number of commits in this cache. */
+    int size() {
+        return map() ? (records.capacity() - HEADER_BYTES) / RECORD_BYTES : 0;
+    }
+
+    /** Returns the date (ms) of the commit at position P. */
+    long date(int p) {
+        map();
+        return records.getLong(recordPos(p));
+    }
+
+    /** Returns the message of the commit at position P. */
+    String message(int p) {
+        map();
+        long offset = records.getLong(recordPos(p) + 8);
+        int length = records.getInt(recordPos(p) + 16);
+        if (messages == null || offset + length > messages.capacity()) {
+            messages = mapFile(messagesFile);
+        }
+        byte[] bytes = new byte[length];
+        messages.get((int) offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Appends the commit with DATE (ms) and MESSAGE at the next position. */
+    void append(long date, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        long offset = messagesFile.length();
+        try (FileOutputStream out = new FileOutputStream(messagesFile, true)) {
+            out.write(bytes);
+        } catch (IOException excp) {
+            throw error("Cannot write commit messages: %s", excp.getMessage());
+        }
+        boolean fresh = !truncateRecords(file, HEADER_BYTES, RECORD_BYTES);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, true)))) {
+            if (fresh) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            out.writeLong(date);
+            out.writeLong(offset);
+            out.writeInt(bytes.length);
+        } catch (IOException excp) {
+            throw error("Cannot write commit metadata: %s", excp.getMessage());
+        }
+        records = null;
+    }
+
+    /** Discards all the commits of this cache. */
+    void clear() {
+        file.delete();
+        messagesFile.delete();
+        records = null;
+        messages = null;
+    }
+
+    /** Maps the records into memory if they exist and are not mapped
+     *  yet.  Returns true if the records are mapped. */
+    private boolean map() {
+        if (records != null) {
+            return true;
+        }
+        if (!file.isFile() || file.length() < HEADER_BYTES) {
+            return false;
+        }
+        records = mapFile(file);
+        if (records.getInt(0) != MAGIC || records.getInt(4) != VERSION) {
+            throw error("Corrupted commit metadata: %s", file);
+        }
+        return true;
+    }
+
+    /** Returns the contents of F mapped into memory. */
+    private static MappedByteBuffer mapFile(File f) {
+        try (FileChannel ch = FileChannel.open(f.toPath())) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw error("Corrupted commit metadata: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the position in the file of the record of commit P. */
+    private static int recordPos(int p) {
+        return HEADER_BYTES + p * RECORD_BYTES;
+    }
+}
@@ -0,0 +1,104 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** The settings of a repository, stored in .gitlet/config as lines of
+ *  the form "key = value".  Blank lines and lines starting with # are
+ *  ignored.  A setting that is absent takes the default of its user.
+ *  @author Min-Hsiu Hsu
+ */
+class Config {
+    /** The file storing these settings. */
+    private final File file;
+    /** Setting names to their values. */
+    private final TreeMap<String, String> values = new TreeMap<>();
+
+    /** Loads the settings stored in FILE, or none if FILE does not exist. */
+    Config(File file) {
+        this.file = file;
+        if (!file.isFile()) {
+            return;
+        }
+        for (String line : readContentsAsString(file).split("\n")) {
+            line = line.trim();
+            int eq = line.indexOf('=');
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            } else if (eq < 0) {
+                errorExit("Bad line in config: %s", line);
+            }
+            values.put(line.substring(0, eq).trim(), line.substring(eq + 1).trim());
+        }
+    }
+
+    /** Returns the value of the setting KEY, or null if it is not set. */
+    String get(String key) {
+        return values.get(key);
+    }
+
+    /** Returns the value of the setting KEY as an integer between MIN and
+     *  MAX, or DEFAULTVALUE if it is not set. */
+    int getInt(String key, int defaultValue, int min, int max) {
+        String value = values.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(value);
+            if (result >= min && result <= max) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Reported below. */
+        }
+        errorExit("Bad config value for %s: %s (expected %d to %d).", key, value, min, max);
+        return defaultValue;
+    }
+
+    /** Returns the value of the setting KEY, which must be one of CHOICES,
+     *  or the first of CHOICES if it is not set. */
+    String getChoice(String key, String... choices) {
+        String value = values.get(key);
+        if (value == null) {
+            return choices[0];
+        }
+        for (String choice : choices) {
+            if (choice.equals(value)) {
+                return choice;
+            }
+        }
+        errorExit("Bad config value for %s: %s (expected one of %s).", key, value,
+                String.join(", ", choices));
+        return choices[0];
+    }
+
+    /** Sets KEY to VALUE, and writes all settings back to their file. */
+    void set(String key, String value) {
+        put(key, value);
+        save();
+    }
+
+    /** Sets KEY to VALUE, without writing the settings to their file. */
+    void put(String key, String value) {
+        values.put(key, value);
+    }
+
+    /** Removes the setting KEY, and writes all settings back to their file. */
+    void unset(String key) {
+        values.remove(key);
+        save();
+    }
+
+    /** Writes all settings to their file. */
+    void save() {
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, String> e : values.entrySet()) {
+            contents.append(e.getKey()).append(" = ").append(e.getValue()).append("\n");
+        }
+        writeContents(file, contents.toString());
+    }
+}
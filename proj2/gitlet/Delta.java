@@ -0,0 +1,148 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Copy/insert deltas between two versions of a blob.
+ *  A delta is a sequence of instructions that rebuild a target from a base:
+ *      0x00 offset length    copy LENGTH bytes of the base starting at OFFSET
+ *      n (1..127) byte*n     insert the next n bytes literally
+ *  preceded by the lengths of the base and of the target.  All numbers are
+ *  unsigned little-endian base-128 varints.
+ *  @author Min-Hsiu Hsu
+ */
+class Delta {
+    /** Length of the base blocks indexed when looking for matches. */
+    private static final int BLOCK = 16;
+    /** Longest literal run of a single insert instruction. */
+    private static final int MAX_INSERT = 127;
+
+    /** Returns a delta rebuilding TARGET from BASE. */
+    static byte[] encode(byte[] base, byte[] target) {
+        /* Indexes the non-overlapping blocks of the base by their hash. */
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int literalStart = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            Integer b = blocks.get(hash(target, i));
+            if (b == null || !matches(base, b, target, i)) {
+                i += 1;
+                continue;
+            }
+            /* Extends the match both ways, backwards into pending literals. */
+            int start = i;
+            int baseStart = b;
+            while (start > literalStart && baseStart > 0
+                    && target[start - 1] == base[baseStart - 1]) {
+                start -= 1;
+                baseStart -= 1;
+            }
+            int end = i + BLOCK;
+            int baseEnd = b + BLOCK;
+            while (end < target.length && baseEnd < base.length
+                    && target[end] == base[baseEnd]) {
+                end += 1;
+                baseEnd += 1;
+            }
+            writeInserts(out, target, literalStart, start);
+            out.write(0);
+            writeVarint(out, baseStart);
+            writeVarint(out, end - start);
+            i = end;
+            literalStart = end;
+        }
+        writeInserts(out, target, literalStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the target rebuilt from BASE by the delta starting at
+     *  OFFSET in DELTA. */
+    static byte[] apply(byte[] base, byte[] delta, int offset) {
+        int[] pos = {offset};
+        int baseLength = readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw error("Delta does not apply to its base.");
+        }
+        byte[] target = new byte[readVarint(delta, pos)];
+        int t = 0;
+        while (pos[0] < delta.length) {
+            int cmd = delta[pos[0]++];
+            if (cmd == 0) {
+                int from = readVarint(delta, pos);
+                int len = readVarint(delta, pos);
+                System.arraycopy(base, from, target, t, len);
+                t += len;
+            } else {
+                System.arraycopy(delta, pos[0], target, t, cmd);
+                pos[0] += cmd;
+                t += cmd;
+            }
+        }
+        if (t != target.length) {
+            throw error("Corrupted delta.");
+        }
+        return target;
+    }
+
+    /** Writes BYTES[FROM..TO) as insert instructions. */
+    private static void writeInserts(ByteArrayOutputStream out, byte[] bytes,
+                                     int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(bytes, from, n);
+            from += n;
+        }
+    }
+
+    /** Returns true if the blocks at A[I] and B[J] are equal. */
+    private static boolean matches(byte[] a, int i, byte[] b, int j) {
+        for (int k = 0; k < BLOCK; k += 1) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns a hash of the block of BYTES starting at I. */
+    private static int hash(byte[] bytes, int i) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = 31 * h + bytes[i + k];
+        }
+        return h;
+    }
+
+    /** Writes the non-negative V as a varint. */
+    static void writeVarint(ByteArrayOutputStream out, long v) {
+        while (v >= 0x80) {
+            out.write((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    /** Reads a varint from BYTES at POS[0], advancing POS[0] past it. */
+    static int readVarint(byte[] bytes, int[] pos) {
+        int v = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = bytes[pos[0]++] & 0xff;
+            v |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b >= 0x80);
+        return v;
+    }
+}
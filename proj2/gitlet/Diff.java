@@ -0,0 +1,458 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The line differences between two versions of a file.
+ *  Both versions are split into lines, every distinct line is numbered,
+ *  and the shortest edit script between the two sequences of numbers is
+ *  found by the linear-space variant of Myers' O(ND) algorithm: the
+ *  middle snake of the edit graph is found by searching from both of its
+ *  corners at once, and the two halves either side of it are compared
+ *  recursively.  The search keeps two arrays of furthest-reaching
+ *  positions, one entry per diagonal, so the memory used grows with the
+ *  number of lines rather than with their product.  Before the search,
+ *  lines that occur in only one version are set aside, as they can only
+ *  be deleted or inserted, and a search that grows too costly settles
+ *  for the furthest point it has reached, as GNU diff does.
+ *  @author Min-Hsiu Hsu
+ */
+class Diff {
+    /** A run of lines [aStart, aEnd) of the old version replaced by the
+     *  lines [bStart, bEnd) of the new version; one of them may be empty. */
+    static class Change {
+        final int aStart, aEnd, bStart, bEnd;
+
+        Change(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** The number of bytes looked at for a NUL when telling binary files. */
+    private static final int BINARY_PROBE = 8000;
+    /** The least edit cost after which the search gives up on a minimal script. */
+    private static final int MIN_TOO_EXPENSIVE = 4096;
+    private static final byte[] NO_NEWLINE = "\n\\ No newline at end of file\n".getBytes();
+
+    /** The contents of the old and new versions. */
+    private final byte[] a, b;
+    /** The offsets of the lines of A and B, with the length of each appended. */
+    private final int[] aLines, bLines;
+    /** True for each line of A deleted and each line of B inserted. */
+    private final boolean[] deleted, inserted;
+    /** The changes from A to B, in order. */
+    private final List<Change> changes = new ArrayList<>();
+
+    /** The numbers of the lines being compared, and the furthest-reaching
+     *  positions of the forward and backward searches, indexed by
+     *  diagonal plus diagOffset. */
+    private int[] xs, ys, fd, bd;
+    private int diagOffset, tooExpensive;
+
+    /** The differences from the contents A to the contents B. */
+    Diff(byte[] a, byte[] b) {
+        this.a = a;
+        this.b = b;
+        aLines = lineOffsets(a);
+        bLines = lineOffsets(b);
+        int n = aLines.length - 1;
+        int m = bLines.length - 1;
+        deleted = new boolean[n];
+        inserted = new boolean[m];
+
+        int[] aIds = new int[n];
+        int[] bIds = new int[m];
+        int distinct = number(a, aLines, b, bLines, aIds, bIds);
+        compareLines(aIds, bIds, distinct);
+        collectChanges();
+    }
+
+    /** Returns true if CONTENTS look like binary data rather than text. */
+    static boolean isBinary(byte[] contents) {
+        for (int i = 0; i < Math.min(contents.length, BINARY_PROBE); i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the changes from the old version to the new one. */
+    List<Change> changes() {
+        return changes;
+    }
+
+    /** Returns the number of lines inserted. */
+    int insertions() {
+        int count = 0;
+        for (Change c : changes) {
+            count += c.bEnd - c.bStart;
+        }
+        return count;
+    }
+
+    /** Returns the number of lines deleted. */
+    int deletions() {
+        int count = 0;
+        for (Change c : changes) {
+            count += c.aEnd - c.aStart;
+        }
+        return count;
+    }
+
+    /** Prints the changes to OUT as unified diff hunks, with CONTEXT
+     *  unchanged lines around each change.  Changes separated by no more
+     *  than twice CONTEXT lines share a hunk. */
+    void printHunks(PrintStream out, int context) {
+        int i = 0;
+        while (i < changes.size()) {
+            int j = i;
+            while (j + 1 < changes.size()
+                    && changes.get(j + 1).aStart - changes.get(j).aEnd <= 2 * context) {
+                j += 1;
+            }
+            Change first = changes.get(i);
+            Change last = changes.get(j);
+            int aStart = Math.max(0, first.aStart - context);
+            int bStart = first.bStart - (first.aStart - aStart);
+            int aEnd = Math.min(aLines.length - 1, last.aEnd + context);
+            int bEnd = last.bEnd + (aEnd - last.aEnd);
+            out.print("@@ -" + range(aStart, aEnd) + " +" + range(bStart, bEnd) + " @@\n");
+
+            int x = aStart;
+            for (int k = i; k <= j; k += 1) {
+                Change c = changes.get(k);
+                printLines(out, ' ', a, aLines, x, c.aStart);
+                printLines(out, '-', a, aLines, c.aStart, c.aEnd);
+                printLines(out, '+', b, bLines, c.bStart, c.bEnd);
+                x = c.aEnd;
+            }
+            printLines(out, ' ', a, aLines, x, aEnd);
+            i = j + 1;
+        }
+    }
+
+    /** Prints the lines [FROM, TO) of CONTENTS, whose line offsets are
+     *  LINES, to OUT, each preceded by PREFIX. */
+    private static void printLines(PrintStream out, char prefix, byte[] contents,
+                                   int[] lines, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            out.write(prefix);
+            out.write(contents, lines[i], lines[i + 1] - lines[i]);
+            if (contents[lines[i + 1] - 1] != '\n') {
+                out.write(NO_NEWLINE, 0, NO_NEWLINE.length);
+            }
+        }
+    }
+
+    /** Returns the hunk header range of the lines [START, END). */
+    private static String range(int start, int end) {
+        if (end - start == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (end == start ? start : start + 1) + "," + (end - start);
+    }
+
+    /** Returns the offsets at which the lines of CONTENTS start, followed
+     *  by the length of CONTENTS.  Each line includes its newline, if any. */
+    static int[] lineOffsets(byte[] contents) {
+        int count = 0;
+        for (byte c : contents) {
+            if (c == '\n') {
+                count += 1;
+            }
+        }
+        boolean unterminated = contents.length > 0 && contents[contents.length - 1] != '\n';
+        int[] offsets = new int[count + (unterminated ? 1 : 0) + 1];
+        int line = 1;
+        for (int i = 0; i < contents.length; i += 1) {
+            if (contents[i] == '\n' && i + 1 < contents.length) {
+                offsets[line] = i + 1;
+                line += 1;
+            }
+        }
+        offsets[offsets.length - 1] = contents.length;
+        return offsets;
+    }
+
+    /** A line of a file, as a range of its contents. */
+    private static class Line {
+        final byte[] contents;
+        final int start, end, hash;
+
+        Line(byte[] contents, int start, int end) {
+            this.contents = contents;
+            this.start = start;
+            this.end = end;
+            int h = 1;
+            for (int i = start; i < end; i += 1) {
+                h = 31 * h + contents[i];
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            Line l = (Line) o;
+            return hash == l.hash
+                    && Arrays.equals(contents, start, end, l.contents, l.start, l.end);
+        }
+    }
+
+    /** Numbers the lines of A and B, whose offsets are ALINES and BLINES,
+     *  into AIDS and BIDS so that equal lines get equal numbers.  Returns
+     *  the number of distinct lines. */
+    private static int number(byte[] a, int[] aLines, byte[] b, int[] bLines,
+                              int[] aIds, int[] bIds) {
+        Map<Line, Integer> ids = new HashMap<>();
+        for (int i = 0; i < aIds.length; i += 1) {
+            aIds[i] = ids.computeIfAbsent(new Line(a, aLines[i], aLines[i + 1]), l -> ids.size());
+        }
+        for (int i = 0; i < bIds.length; i += 1) {
+            bIds[i] = ids.computeIfAbsent(new Line(b, bLines[i], bLines[i + 1]), l -> ids.size());
+        }
+        return ids.size();
+    }
+
+    /** Marks the lines deleted from AIDS and inserted into BIDS, sequences
+     *  of line numbers below DISTINCT. */
+    private void compareLines(int[] aIds, int[] bIds, int distinct) {
+        /* Lines found in only one version are deleted or inserted outright. */
+        boolean[] inA = new boolean[distinct];
+        boolean[] inB = new boolean[distinct];
+        for (int id : aIds) {
+            inA[id] = true;
+        }
+        for (int id : bIds) {
+            inB[id] = true;
+        }
+        int[] aKept = keep(aIds, inB, deleted);
+        int[] bKept = keep(bIds, inA, inserted);
+
+        xs = new int[aKept.length];
+        ys = new int[bKept.length];
+        for (int i = 0; i < xs.length; i += 1) {
+            xs[i] = aIds[aKept[i]];
+        }
+        for (int i = 0; i < ys.length; i += 1) {
+            ys[i] = bIds[bKept[i]];
+        }
+        int diagonals = xs.length + ys.length + 3;
+        fd = new int[diagonals];
+        bd = new int[diagonals];
+        diagOffset = ys.length + 1;
+        tooExpensive = 1;
+        for (int d = diagonals; d != 0; d >>= 2) {
+            tooExpensive <<= 1;
+        }
+        tooExpensive = Math.max(MIN_TOO_EXPENSIVE, tooExpensive);
+
+        boolean[] xDeleted = new boolean[xs.length];
+        boolean[] yInserted = new boolean[ys.length];
+        compare(0, xs.length, 0, ys.length, xDeleted, yInserted);
+        for (int i = 0; i < xs.length; i += 1) {
+            deleted[aKept[i]] = xDeleted[i];
+        }
+        for (int i = 0; i < ys.length; i += 1) {
+            inserted[bKept[i]] = yInserted[i];
+        }
+        xs = ys = fd = bd = null;
+    }
+
+    /** Returns the positions in IDS of the lines whose number is marked in
+     *  OTHER, and marks the others in CHANGED. */
+    private static int[] keep(int[] ids, boolean[] other, boolean[] changed) {
+        int count = 0;
+        for (int i = 0; i < ids.length; i += 1) {
+            if (other[ids[i]]) {
+                count += 1;
+            } else {
+                changed[i] = true;
+            }
+        }
+        int[] kept = new int[count];
+        count = 0;
+        for (int i = 0; i < ids.length; i += 1) {
+            if (other[ids[i]]) {
+                kept[count] = i;
+                count += 1;
+            }
+        }
+        return kept;
+    }
+
+    /** Marks in XDELETED and YINSERTED a shortest edit script from the
+     *  lines [XLO, XHI) of xs to the lines [YLO, YHI) of ys. */
+    private void compare(int xlo, int xhi, int ylo, int yhi,
+                         boolean[] xDeleted, boolean[] yInserted) {
+        while (xlo < xhi && ylo < yhi && xs[xlo] == ys[ylo]) {
+            xlo += 1;
+            ylo += 1;
+        }
+        while (xhi > xlo && yhi > ylo && xs[xhi - 1] == ys[yhi - 1]) {
+            xhi -= 1;
+            yhi -= 1;
+        }
+        if (xlo == xhi || ylo == yhi) {
+            Arrays.fill(xDeleted, xlo, xhi, true);
+            Arrays.fill(yInserted, ylo, yhi, true);
+            return;
+        }
+        long mid = middleSnake(xlo, xhi, ylo, yhi);
+        int x = (int) (mid >>> 32);
+        int y = (int) mid;
+        if ((x == xlo && y == ylo) || (x == xhi && y == yhi)) {
+            /* The search gave up without making progress. */
+            Arrays.fill(xDeleted, xlo, xhi, true);
+            Arrays.fill(yInserted, ylo, yhi, true);
+            return;
+        }
+        compare(xlo, x, ylo, y, xDeleted, yInserted);
+        compare(x, xhi, y, yhi, xDeleted, yInserted);
+    }
+
+    /** Returns the point (x, y), packed as x << 32 | y, at which a shortest
+     *  edit script from [XLO, XHI) of xs to [YLO, YHI) of ys can be split
+     *  in two, both non-empty.  A diagonal d holds the points with
+     *  x - y = d; fd[d] is the furthest x reached on it from (XLO, YLO),
+     *  and bd[d] the least x reached on it back from (XHI, YHI). */
+    private long middleSnake(int xlo, int xhi, int ylo, int yhi) {
+        int dmin = xlo - yhi, dmax = xhi - ylo;
+        int fmid = xlo - ylo, bmid = xhi - yhi;
+        int fmin = fmid, fmax = fmid, bmin = bmid, bmax = bmid;
+        boolean odd = ((fmid - bmid) & 1) != 0;
+        int off = diagOffset;
+        fd[fmid + off] = xlo;
+        bd[bmid + off] = xhi;
+
+        for (int cost = 1;; cost += 1) {
+            /* Extends the forward search by one edit on every diagonal. */
+            if (fmin > dmin) {
+                fmin -= 1;
+                fd[fmin - 1 + off] = -1;
+            } else {
+                fmin += 1;
+            }
+            if (fmax < dmax) {
+                fmax += 1;
+                fd[fmax + 1 + off] = -1;
+            } else {
+                fmax -= 1;
+            }
+            for (int d = fmax; d >= fmin; d -= 2) {
+                int tlo = fd[d - 1 + off], thi = fd[d + 1 + off];
+                int x = tlo < thi ? thi : tlo + 1;
+                int y = x - d;
+                while (x < xhi && y < yhi && xs[x] == ys[y]) {
+                    x += 1;
+                    y += 1;
+                }
+                fd[d + off] = x;
+                if (odd && bmin <= d && d <= bmax && bd[d + off] <= x) {
+                    return (long) x << 32 | y;
+                }
+            }
+
+            /* Extends the backward search likewise. */
+            if (bmin > dmin) {
+                bmin -= 1;
+                bd[bmin - 1 + off] = Integer.MAX_VALUE;
+            } else {
+                bmin += 1;
+            }
+            if (bmax < dmax) {
+                bmax += 1;
+                bd[bmax + 1 + off] = Integer.MAX_VALUE;
+            } else {
+                bmax -= 1;
+            }
+            for (int d = bmax; d >= bmin; d -= 2) {
+                int tlo = bd[d - 1 + off], thi = bd[d + 1 + off];
+                int x = tlo < thi ? tlo : thi - 1;
+                int y = x - d;
+                while (x > xlo && y > ylo && xs[x - 1] == ys[y - 1]) {
+                    x -= 1;
+                    y -= 1;
+                }
+                bd[d + off] = x;
+                if (!odd && fmin <= d && d <= fmax && x <= fd[d + off]) {
+                    return (long) x << 32 | y;
+                }
+            }
+
+            if (cost >= tooExpensive) {
+                return furthestPoint(xlo, xhi, ylo, yhi, fmin, fmax, bmin, bmax);
+            }
+        }
+    }
+
+    /** Returns the point, packed as by middleSnake, that gets furthest
+     *  from its starting corner: either the end of the forward search, on
+     *  diagonals [FMIN, FMAX], nearest to (XHI, YHI), or the end of the
+     *  backward search, on [BMIN, BMAX], nearest to (XLO, YLO). */
+    private long furthestPoint(int xlo, int xhi, int ylo, int yhi,
+                               int fmin, int fmax, int bmin, int bmax) {
+        int off = diagOffset;
+        long forward = 0;
+        int forwardReach = -1;
+        for (int d = fmax; d >= fmin; d -= 2) {
+            int x = Math.min(fd[d + off], xhi);
+            int y = x - d;
+            if (y > yhi) {
+                x = yhi + d;
+                y = yhi;
+            }
+            if (x + y - xlo - ylo > forwardReach) {
+                forwardReach = x + y - xlo - ylo;
+                forward = (long) x << 32 | y;
+            }
+        }
+        long backward = 0;
+        int backwardReach = -1;
+        for (int d = bmax; d >= bmin; d -= 2) {
+            int x = Math.max(xlo, bd[d + off]);
+            int y = x - d;
+            if (y < ylo) {
+                x = ylo + d;
+                y = ylo;
+            }
+            if (xhi + yhi - x - y > backwardReach) {
+                backwardReach = xhi + yhi - x - y;
+                backward = (long) x << 32 | y;
+            }
+        }
+        return forwardReach >= backwardReach ? forward : backward;
+    }
+
+    /** Gathers the marked lines into runs of changes. */
+    private void collectChanges() {
+        int i = 0, j = 0;
+        while (i < deleted.length || j < inserted.length) {
+            if ((i < deleted.length && deleted[i]) || (j < inserted.length && inserted[j])) {
+                int aStart = i, bStart = j;
+                while (i < deleted.length && deleted[i]) {
+                    i += 1;
+                }
+                while (j < inserted.length && inserted[j]) {
+                    j += 1;
+                }
+                changes.add(new Change(aStart, i, bStart, j));
+            } else {
+                i += 1;
+                j += 1;
+            }
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package gitlet;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 
 /** A debugging class whose main program may be invoked as follows:
  *      java gitlet.DumpObj FILE...
  *  where each FILE is a file produced by Utils.writeObject (or any file
- *  containing a serialized object).  This will simply read FILE,
+ *  containing a serialized object), or a commit or repo snapshot in the
+ *  binary encoding of Commit or Repository.  This will simply read FILE,
  *  deserialize it, and call the dump method on the resulting Object.
  *  The object must implement the gitlet.Dumpable interface for this
  *  to work.  For example, you might define your class like this:
@@ -33,11 +35,22 @@ public class DumpObj {
      *  in FILES. */
     public static void main(String... files) {
         for (String fileName : files) {
-            Dumpable obj = Utils.readObject(new File(fileName),
-                                            Dumpable.class);
+            Dumpable obj = load(new File(fileName));
             obj.dump();
             System.out.println("---");
         }
     }
+
+    /** Returns the object stored in FILE. */
+    private static Dumpable load(File file) {
+        byte[] bytes = Utils.readContents(file);
+        int magic = bytes.length < 4 ? 0 : ByteBuffer.wrap(bytes).getInt();
+        if (magic == Commit.MAGIC) {
+            return Commit.decode(bytes);
+        } else if (magic == Repository.MAGIC) {
+            return Repository.decode(bytes);
+        }
+        return Utils.deserialize(bytes, Dumpable.class);
+    }
 }
 
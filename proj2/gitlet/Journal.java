@@ -0,0 +1,99 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** An append-only journal of changes to the state of a repository.
+ *  Each record is a short list of strings, written as a count followed
+ *  by that many modified-UTF-8 strings.  A command appends only the
+ *  records of its own changes, so its write cost does not depend on the
+ *  size of the repository.  A record cut short by a crash is cut off the
+ *  file when the journal is next read, so that later records are appended
+ *  after the last complete one.
+ *  @author Min-Hsiu Hsu
+ */
+class Journal {
+    /** The file storing this journal. */
+    private final File file;
+
+    /** A journal stored in FILE. */
+    Journal(File file) {
+        this.file = file;
+    }
+
+    /** Returns all the complete records of this journal, oldest first,
+     *  truncating the file after the last of them. */
+    List<String[]> read() {
+        List<String[]> records = new ArrayList<>();
+        if (!file.isFile()) {
+            return records;
+        }
+        byte[] bytes = readContents(file);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int complete = 0;
+        try {
+            while (complete < bytes.length) {
+                String[] record = new String[in.readUnsignedByte()];
+                for (int i = 0; i < record.length; i += 1) {
+                    record[i] = in.readUTF();
+                }
+                records.add(record);
+                complete = bytes.length - in.available();
+            }
+        } catch (EOFException excp) {
+            truncate(complete);
+        } catch (IOException excp) {
+            throw error("Corrupted journal: %s", excp.getMessage());
+        }
+        return records;
+    }
+
+    /** Cuts this journal off after its first LENGTH bytes. */
+    private void truncate(long length) {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            ch.truncate(length);
+        } catch (IOException excp) {
+            throw error("Cannot truncate journal: %s", excp.getMessage());
+        }
+    }
+
+    /** Appends RECORDS to this journal. */
+    void append(List<String[]> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, true)))) {
+            for (String[] record : records) {
+                out.writeByte(record.length);
+                for (String field : record) {
+                    out.writeUTF(field);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write journal: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the size in bytes of this journal. */
+    long length() {
+        return file.length();
+    }
+
+    /** Discards all the records of this journal. */
+    void clear() {
+        file.delete();
+    }
+}
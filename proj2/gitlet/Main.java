@@ -1,5 +1,13 @@
 package gitlet;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static gitlet.Utils.*;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
@@ -11,27 +19,37 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
-        if (args.length == 0) {
-            errorExit("Must have at least one argument", (Object) args);
+        try {
+            if (args.length == 0) {
+                errorExit("Must have at least one argument", (Object) args);
+            }
+            run(loadRepo(), args);
+        } catch (CommandExit excp) {
+            /* The command has printed why it ended. */
         }
+    }
 
-        /* Create a repo or load a saved repo. */
-        Repository repo;
+    /** Returns the saved repo in the current directory, or a new one. */
+    static Repository loadRepo() {
         if (Repository.REPO_FILE.exists()) {
-            repo = Repository.loadRepo();
+            return Repository.loadRepo();
         } else {
-            repo = new Repository();
+            return new Repository();
         }
+    }
 
+    /** Runs the command ARGS, which are as for main, on REPO. */
+    static void run(Repository repo, String[] args) {
         String firstArg = args[0];
         switch(firstArg) {
             case "init":
                 repo.init();
                 break;
             case "add":
-                validateNumArgs("add", args, 2);
-                String filePathName = args[1];
-                repo.add(filePathName);
+                if (args.length < 2) {
+                    validateNumArgs("add", args, 2);
+                }
+                repo.add(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "commit":
                 validateNumArgs("commit", args, 2);
@@ -44,17 +62,44 @@ public class Main {
                 repo.rm(removePathName);
                 break;
             case "log":
-                validateNumArgs("log", args, 1);
-                repo.log();
-                break;
             case "global-log":
-                validateNumArgs("global-log", args, 1);
-                repo.globalLog();
+                /* log [-n count] [--since date] [-- path...] */
+                int limit = Integer.MAX_VALUE;
+                long since = Long.MIN_VALUE;
+                List<String> logPaths = new ArrayList<>();
+                for (int i = 1; i < args.length; i += 2) {
+                    if (args[i].equals("--") && firstArg.equals("log")) {
+                        for (String path : Arrays.asList(args).subList(i + 1, args.length)) {
+                            logPaths.add(path.replaceAll("/+$", ""));
+                        }
+                        break;
+                    } else if (i + 1 == args.length) {
+                        errorExit("Incorrect operands.");
+                    } else if (args[i].equals("-n")) {
+                        limit = parseCount(args[i + 1]);
+                    } else if (args[i].equals("--since")) {
+                        since = parseDate(args[i + 1]);
+                    } else {
+                        errorExit("Incorrect operands.");
+                    }
+                }
+                if (firstArg.equals("log")) {
+                    repo.log(limit, since, logPaths);
+                } else {
+                    repo.globalLog(limit, since);
+                }
                 break;
             case "find":
-                validateNumArgs("find", args, 2);
-                String searchMsg = args[1];
-                repo.find(searchMsg);
+                /* find [--substring | --regex] [commit message] */
+                if (args.length == 2) {
+                    repo.find(args[1]);
+                } else if (args.length == 3 && args[1].equals("--substring")) {
+                    repo.find(args[2], false);
+                } else if (args.length == 3 && args[1].equals("--regex")) {
+                    repo.find(args[2], true);
+                } else {
+                    errorExit("Incorrect operands.");
+                }
                 break;
             case "status":
                 validateNumArgs("status", args, 1);
@@ -99,11 +144,126 @@ public class Main {
                 String mergeBranchName = args[1];
                 repo.merge(mergeBranchName);
                 break;
+            case "config":
+                if (args.length != 2 && args.length != 3) {
+                    validateNumArgs("config", args, 2);
+                }
+                repo.config(args[1], args.length == 3 ? args[2] : null);
+                break;
+            case "diff":
+                /* diff [--stat] [commit [commit]] [-- file...] */
+                List<String> revisions = new ArrayList<>();
+                List<String> paths = new ArrayList<>();
+                boolean stat = false;
+                for (int i = 1; i < args.length; i += 1) {
+                    if (args[i].equals("--")) {
+                        paths.addAll(Arrays.asList(args).subList(i + 1, args.length));
+                        break;
+                    } else if (args[i].equals("--stat")) {
+                        stat = true;
+                    } else {
+                        revisions.add(args[i]);
+                    }
+                }
+                if (revisions.size() > 2) {
+                    errorExit("Incorrect operands.");
+                }
+                repo.diff(revisions, paths, stat);
+                break;
+            case "daemon":
+                /* daemon [stop] */
+                if (args.length == 1) {
+                    Server.serve(repo);
+                } else if (args.length == 2 && args[1].equals("stop")) {
+                    Client.stop();
+                } else {
+                    errorExit("Incorrect operands.");
+                }
+                break;
+            case "pack":
+                validateNumArgs("pack", args, 1);
+                repo.pack();
+                break;
+            case "gc":
+                /* gc [--repack] */
+                if (args.length == 1) {
+                    repo.gc(false);
+                } else if (args.length == 2 && args[1].equals("--repack")) {
+                    repo.gc(true);
+                } else {
+                    errorExit("Incorrect operands.");
+                }
+                break;
+            case "add-remote":
+                validateNumArgs("add-remote", args, 3);
+                repo.addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                validateNumArgs("rm-remote", args, 2);
+                repo.removeRemote(args[1]);
+                break;
+            case "fetch":
+                validateNumArgs("fetch", args, 3);
+                repo.fetch(args[1], args[2]);
+                break;
+            case "push":
+                validateNumArgs("push", args, 3);
+                repo.push(args[1], args[2]);
+                break;
+            case "pull":
+                validateNumArgs("pull", args, 3);
+                repo.pull(args[1], args[2]);
+                break;
+            case "upload-pack":
+                /* Run by fetch in the repo fetched from. */
+                validateNumArgs("upload-pack", args, 1);
+                repo.uploadPack(Remote.serve());
+                break;
+            case "receive-pack":
+                /* Run by push in the repo pushed to. */
+                validateNumArgs("receive-pack", args, 1);
+                repo.receivePack(Remote.serve());
+                break;
             default:
                 errorExit("No command with that name exists.");
         }
+        Trace.report(Commit.cacheStats());
+    }
+
+    /** Returns the non-negative number COUNT of a -n option. */
+    private static int parseCount(String count) {
+        try {
+            int n = Integer.parseInt(count);
+            if (n >= 0) {
+                return n;
+            }
+        } catch (NumberFormatException excp) {
+            /* Reported below. */
+        }
+        errorExit("Incorrect count: %s", count);
+        return 0;
     }
 
+    /** Returns the time (ms) denoted by DATE, a local date "yyyy-MM-dd"
+     *  optionally followed by a time "HH:mm[:ss]". */
+    private static long parseDate(String date) {
+        try {
+            LocalDateTime time;
+            if (date.length() <= DATE_ONLY_LENGTH) {
+                time = LocalDate.parse(date).atStartOfDay();
+            } else {
+                time = LocalDateTime.parse(date.replace(' ', 'T'));
+            }
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException excp) {
+            errorExit("Incorrect date: %s", date);
+            return 0;
+        }
+    }
+
+    /** The length of a date without a time, as in "2021-03-01". */
+    private static final int DATE_ONLY_LENGTH = 10;
+
     /**
      * Checks the number of arguments versus the expected number,
      * throws a RuntimeException if they do not match.
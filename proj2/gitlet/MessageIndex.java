@@ -0,0 +1,164 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/** A persistent index from commit messages to the commits that have
+ *  them, kept in a directory.  For every distinct message there is a
+ *  bucket file, named after the SHA-1 hash of the message, holding the
+ *  ids of its commits as raw bytes in the order they were made, so an
+ *  exact search reads just the matching ids.  The file "list" holds each
+ *  distinct message at least once, for substring and pattern searches.
+ *  Both are only ever appended to.  The bucket of a new message is
+ *  written as "pending" and renamed only once the message is listed, so
+ *  a crash can at worst list a message twice; if "pending" is left
+ *  over, a message cut short at the end of the list is cut off the file
+ *  before another is appended.
+ *  @author Min-Hsiu Hsu
+ */
+class MessageIndex {
+    /** The name of the file listing the distinct messages. */
+    private static final String LIST_NAME = "list";
+    /** The name of the bucket of a new message until it is listed. */
+    private static final String PENDING_NAME = "pending";
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** The directory storing this index. */
+    private final File dir;
+
+    /** An index stored in DIR. */
+    MessageIndex(File dir) {
+        this.dir = dir;
+    }
+
+    /** Returns true if this index has been written to disk. */
+    boolean exists() {
+        return join(dir, LIST_NAME).isFile();
+    }
+
+    /** Removes every entry of this index. */
+    void clear() {
+        delete();
+        dir.mkdir();
+        writeContents(join(dir, LIST_NAME), new byte[0]);
+    }
+
+    /** Removes this index from disk altogether. */
+    void delete() {
+        if (dir.isDirectory()) {
+            for (String name : plainFilenamesIn(dir)) {
+                join(dir, name).delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /** Records that the commit ID has the message MESSAGE.  Does nothing
+     *  if ID is already the last commit recorded with MESSAGE. */
+    void add(String id, String message) {
+        File bucket = bucket(message);
+        byte[] idBytes = uidToBytes(id);
+        try {
+            if (bucket.isFile()) {
+                try (RandomAccessFile in = new RandomAccessFile(bucket, "r")) {
+                    byte[] last = new byte[ID_BYTES];
+                    if (in.length() >= ID_BYTES) {
+                        in.seek(in.length() - ID_BYTES);
+                        in.readFully(last);
+                        if (Arrays.equals(last, idBytes)) {
+                            return;
+                        }
+                    }
+                }
+                Files.write(bucket.toPath(), idBytes, StandardOpenOption.APPEND);
+            } else {
+                File pending = join(dir, PENDING_NAME);
+                if (pending.exists()) {
+                    messages();
+                }
+                Files.write(pending.toPath(), idBytes);
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(join(dir, LIST_NAME), true)))) {
+                    writeString(out, message);
+                }
+                Files.move(pending.toPath(), bucket.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write message index: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the ids of the commits whose message is MESSAGE, oldest first. */
+    List<String> find(String message) {
+        List<String> ids = new ArrayList<>();
+        File bucket = bucket(message);
+        if (bucket.isFile()) {
+            byte[] bytes = readContents(bucket);
+            for (int i = 0; i + ID_BYTES <= bytes.length; i += ID_BYTES) {
+                ids.add(bytesToUid(bytes, i, ID_BYTES));
+            }
+        }
+        return ids;
+    }
+
+    /** Returns the ids of the commits whose message satisfies MATCHES,
+     *  grouped by message in the order the messages were first used. */
+    List<String> search(Predicate<String> matches) {
+        List<String> ids = new ArrayList<>();
+        for (String message : messages()) {
+            if (matches.test(message)) {
+                ids.addAll(find(message));
+            }
+        }
+        return ids;
+    }
+
+    /** Returns the distinct messages in this index, truncating the list
+     *  after the last complete one. */
+    private Set<String> messages() {
+        Set<String> messages = new LinkedHashSet<>();
+        File list = join(dir, LIST_NAME);
+        byte[] bytes = readContents(list);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int complete = 0;
+        try {
+            while (complete < bytes.length) {
+                messages.add(readString(in));
+                complete = bytes.length - in.available();
+            }
+        } catch (EOFException excp) {
+            try (FileChannel ch = FileChannel.open(list.toPath(), StandardOpenOption.WRITE)) {
+                ch.truncate(complete);
+            } catch (IOException e) {
+                throw error("Cannot write message index: %s", e.getMessage());
+            }
+        } catch (IOException excp) {
+            throw error("Cannot read message index: %s", excp.getMessage());
+        }
+        return messages;
+    }
+
+    /** Returns the bucket file of the commits with MESSAGE. */
+    private File bucket(String message) {
+        return join(dir, sha1(message));
+    }
+}
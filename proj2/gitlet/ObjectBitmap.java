@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static gitlet.Utils.*;
+
+/** A set of object ids with a mark bit for each, for "gitlet gc".
+ *  An id is kept as its first 64 bits only, in a sorted array, so the set
+ *  takes 8 bytes and a bit per object whatever the objects are.  The
+ *  position of an id in that array is its bit in the bitmap.  Two ids
+ *  that share their first 64 bits share a bit, which can keep an object
+ *  that is not reachable, but can never lose one that is.
+ *  @author Min-Hsiu Hsu
+ */
+class ObjectBitmap {
+    /** The first 64 bits of each id, sorted and distinct once sealed. */
+    private long[] keys = new long[1 << 10];
+    /** The number of keys in use. */
+    private int size;
+    /** The mark bits, by position in KEYS, or null until sealed. */
+    private BitSet marks;
+
+    /** Adds the object ID to this set.  Ids may not be added once any
+     *  has been marked. */
+    void add(String id) {
+        if (marks != null) {
+            throw error("Internal error: object added after marking");
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * size);
+        }
+        keys[size] = key(id);
+        size += 1;
+    }
+
+    /** Returns the number of distinct objects in this set. */
+    int size() {
+        seal();
+        return size;
+    }
+
+    /** Marks the object ID.  Returns true if it is in this set and was
+     *  not marked before. */
+    boolean mark(String id) {
+        int i = position(id);
+        if (i < 0 || marks.get(i)) {
+            return false;
+        }
+        marks.set(i);
+        return true;
+    }
+
+    /** Returns true if the object ID is in this set and marked. */
+    boolean isMarked(String id) {
+        int i = position(id);
+        return i >= 0 && marks.get(i);
+    }
+
+    /** Returns the position of ID in KEYS, or a negative number if it is
+     *  not in this set. */
+    private int position(String id) {
+        seal();
+        return Arrays.binarySearch(keys, 0, size, key(id));
+    }
+
+    /** Sorts the keys and drops duplicates, once all ids are added. */
+    private void seal() {
+        if (marks != null) {
+            return;
+        }
+        Arrays.sort(keys, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i += 1) {
+            if (distinct == 0 || keys[i] != keys[distinct - 1]) {
+                keys[distinct] = keys[i];
+                distinct += 1;
+            }
+        }
+        size = distinct;
+        marks = new BitSet(size);
+    }
+
+    /** Returns the first 64 bits of the hexadecimal id ID. */
+    private static long key(String id) {
+        return Long.parseUnsignedLong(id.substring(0, 16), 16);
+    }
+}
@@ -0,0 +1,734 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import static gitlet.Utils.*;
+
+/** Resolves Gitlet objects from the Files that refer to them.
+ *  A blob, a commit or a tree node is referred to by a File named after
+ *  its SHA-1 id in OBJECT_DIR, COMMIT_DIR or TREE_DIR.  The object is either stored loose as
+ *  that very file, or loose and deflated as that file name with the
+ *  suffix ".z", or it has been folded into the pack by "gitlet pack".
+ *  Blobs are deflated when written if the setting core.compression of
+ *  the repo config is a level from 1 (fastest) to 9 (smallest); the
+ *  default 0 stores them as they are.  A file of MIN_CHUNKED_BYTES or
+ *  more is split by Chunker into content-defined chunks, stored once each
+ *  in CHUNK_DIR however many blobs they are part of, and its blob is the
+ *  list of its chunks, in the file named after the blob id with the
+ *  suffix ".chunks".  The id of a blob is always the SHA-1 hash of its
+ *  whole contents, however it is stored.  Objects are never modified once
+ *  written, and loose blobs are made read-only, so that a working file
+ *  checked out as a hard link to one cannot be edited in place.
+ *  @author Min-Hsiu Hsu
+ */
+class ObjectStore {
+    /** The suffix of the name of a deflated loose object. */
+    static final String DEFLATED_SUFFIX = ".z";
+    /** The suffix of the name of the chunk list of a chunked blob. */
+    static final String CHUNKED_SUFFIX = ".chunks";
+
+    /** Chunk list encoding: "GLCK" version chunkCount { chunkId length }*,
+     *  where ids are written by Utils.writeUid and lengths by writeVarint. */
+    static final int CHUNKS_MAGIC = 0x474c434b;
+    private static final int CHUNKS_VERSION = 1;
+    /** Files of at least this many bytes are stored as chunks. */
+    static final long MIN_CHUNKED_BYTES = 1 << 20;
+
+    /** The name of a loose object: its id, with a suffix if it is deflated
+     *  or chunked. */
+    private static final Pattern OBJECT_NAME = Pattern.compile(
+            "[0-9a-f]{" + UID_LENGTH + "}(\\" + DEFLATED_SUFFIX + "|\\" + CHUNKED_SUFFIX + ")?");
+
+    /** The compression level of new blobs, read from the config on first use. */
+    private static int compressionLevel = -1;
+
+    /** Checkout mode copying blobs inside the kernel with FileChannel.transferTo. */
+    static final String COPY = "copy";
+    /** Checkout mode making working files hard links to read-only copies
+     *  of blobs, kept apart from the objects. */
+    static final String LINK = "link";
+    /** The modification time of every copy in LINK_DIR, which an edit
+     *  through a working file linked to it changes. */
+    private static final long LINK_COPY_TIME = 0;
+    /** Checkout mode making working files copy-on-write clones of blobs. */
+    static final String CLONE = "clone";
+    /** The number of temporary files made by checkoutTempPath. */
+    private static final AtomicLong checkoutTemps = new AtomicLong();
+    /** Blobs smaller than this are copied even in clone mode, as starting
+     *  cp to clone them costs more than copying them. */
+    private static final long MIN_CLONE_BYTES = 1 << 20;
+
+    /** The pack of this repository, opened on first use. */
+    private static Pack pack;
+
+    /** Forgets the pack and the settings read so far, which another
+     *  command may have changed since, before the daemon runs a command. */
+    static synchronized void reset() {
+        pack = null;
+        compressionLevel = -1;
+    }
+
+    /** Returns the pack of this repository. */
+    static synchronized Pack pack() {
+        if (pack == null) {
+            pack = new Pack(Repository.PACK_DIR);
+        }
+        return pack;
+    }
+
+    /** Returns the contents of the object referred to by OBJECTFILE. */
+    static byte[] read(File objectFile) {
+        if (objectFile.isFile()) {
+            return readContents(objectFile);
+        }
+        File deflated = deflatedFile(objectFile);
+        if (deflated.isFile()) {
+            return inflate(readContents(deflated));
+        }
+        File chunks = chunkedFile(objectFile);
+        if (chunks.isFile()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                copyChunks(chunks, out);
+            } catch (IOException excp) {
+                throw error("Internal error reading %s: %s", objectFile.getName(),
+                        excp.getMessage());
+            }
+            return out.toByteArray();
+        }
+        byte[] payload = pack().read(objectFile.getName());
+        if (payload == null) {
+            throw error("Missing object %s.", objectFile.getName());
+        }
+        return payload;
+    }
+
+    /** Returns the contents of the object referred to by OBJECTFILE as a String. */
+    static String readAsString(File objectFile) {
+        return new String(read(objectFile), StandardCharsets.UTF_8);
+    }
+
+    /** Stores the contents of SOURCE as a blob and returns its id.  The
+     *  file is hashed and copied, deflated if so configured, in a single
+     *  pass through a fixed-size buffer, so memory use does not depend on
+     *  its size.  A large file is stored as chunks instead. */
+    static String writeBlob(File source) {
+        if (source.length() >= MIN_CHUNKED_BYTES) {
+            return writeChunkedBlob(source);
+        }
+        File tmp = null;
+        int level = compressionLevel();
+        Deflater deflater = level == 0 ? null : new Deflater(level);
+        try {
+            tmp = File.createTempFile(".blob-", null, Repository.GITLET_DIR);
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            try (InputStream in = Files.newInputStream(source.toPath());
+                 OutputStream out = deflater == null
+                         ? Files.newOutputStream(tmp.toPath())
+                         : new DeflaterOutputStream(Files.newOutputStream(tmp.toPath()),
+                                 deflater, BUFFER_SIZE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    md.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                }
+            }
+            String id = bytesToUid(md.digest(), 0, UID_LENGTH / 2);
+            File blob = join(Repository.OBJECT_DIR, id);
+            if (exists(blob)) {
+                tmp.delete();
+            } else {
+                File dest = deflater == null ? blob : deflatedFile(blob);
+                tmp.setReadOnly();
+                Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            return id;
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /** Stores the contents of SOURCE as a chunked blob and returns its id.
+     *  Only the chunks not already stored are written. */
+    private static String writeChunkedBlob(File source) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            MessageDigest chunkMd = MessageDigest.getInstance("SHA-1");
+            ByteArrayOutputStream list = new ByteArrayOutputStream();
+            int count = 0;
+            try (InputStream in = Files.newInputStream(source.toPath());
+                 DataOutputStream out = new DataOutputStream(list)) {
+                Chunker chunker = new Chunker(in);
+                for (int n = chunker.next(); n > 0; n = chunker.next()) {
+                    md.update(chunker.buffer(), chunker.offset(), n);
+                    chunkMd.update(chunker.buffer(), chunker.offset(), n);
+                    String chunkId = bytesToUid(chunkMd.digest(), 0, UID_LENGTH / 2);
+                    File chunk = join(Repository.CHUNK_DIR, chunkId);
+                    if (looseFile(chunk) == null) {
+                        Repository.CHUNK_DIR.mkdir();
+                        writeLoose(chunk, chunker.buffer(), chunker.offset(), n);
+                    }
+                    writeUid(out, chunkId);
+                    writeVarint(out, n);
+                    count += 1;
+                }
+            }
+            String id = bytesToUid(md.digest(), 0, UID_LENGTH / 2);
+            File blob = join(Repository.OBJECT_DIR, id);
+            if (!exists(blob)) {
+                ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+                try (DataOutputStream out = new DataOutputStream(chunks)) {
+                    out.writeInt(CHUNKS_MAGIC);
+                    out.writeByte(CHUNKS_VERSION);
+                    writeVarint(out, count);
+                    list.writeTo(out);
+                }
+                byte[] contents = chunks.toByteArray();
+                moveInto(chunkedFile(blob), tmp -> Files.write(tmp, contents));
+            }
+            return id;
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores CONTENTS as the loose object OBJECTFILE, undeflated,
+     *  through a temporary file renamed into place, so that no crash can
+     *  leave part of it where exists() would find it. */
+    static void writeObject(File objectFile, byte[] contents) {
+        try {
+            moveInto(objectFile, tmp -> Files.write(tmp, contents));
+        } catch (IOException excp) {
+            throw error("Cannot write object %s: %s", objectFile.getName(), excp.getMessage());
+        }
+    }
+
+    /** Stores the LEN bytes of B from OFF as the loose object OBJECTFILE,
+     *  deflated if so configured. */
+    private static void writeLoose(File objectFile, byte[] b, int off, int len)
+            throws IOException {
+        int level = compressionLevel();
+        if (level == 0) {
+            moveInto(objectFile, tmp -> Files.write(tmp, Arrays.copyOfRange(b, off, off + len)));
+            return;
+        }
+        Deflater deflater = new Deflater(level);
+        try {
+            moveInto(deflatedFile(objectFile), tmp -> {
+                try (OutputStream out = new DeflaterOutputStream(
+                        Files.newOutputStream(tmp), deflater, BUFFER_SIZE)) {
+                    out.write(b, off, len);
+                }
+            });
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Writes a read-only temporary file in the .gitlet directory with
+     *  WRITER and renames it to DEST. */
+    private static void moveInto(File dest, TempWriter writer) throws IOException {
+        File tmp = File.createTempFile(".object-", null, Repository.GITLET_DIR);
+        try {
+            writer.write(tmp.toPath());
+            tmp.setReadOnly();
+            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Writes the contents of a temporary file. */
+    private interface TempWriter {
+        void write(Path tmp) throws IOException;
+    }
+
+    /** Writes the contents of the blob whose chunk list is CHUNKS to OUT,
+     *  one chunk at a time, and returns the number of bytes written. */
+    private static long copyChunks(File chunks, OutputStream out) throws IOException {
+        long size = 0;
+        try (DataInputStream in = openChunkList(chunks)) {
+            for (int n = readVarint(in); n > 0; n -= 1) {
+                String chunkId = readUid(in);
+                int length = readVarint(in);
+                byte[] chunk = read(join(Repository.CHUNK_DIR, chunkId));
+                if (chunk.length != length) {
+                    throw error("Corrupted chunk %s.", chunkId);
+                }
+                out.write(chunk);
+                size += length;
+            }
+        }
+        return size;
+    }
+
+    /** Returns the chunk list CHUNKS as a stream, just after its header. */
+    private static DataInputStream openChunkList(File chunks) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(readContents(chunks)));
+        if (in.readInt() != CHUNKS_MAGIC || in.readUnsignedByte() != CHUNKS_VERSION) {
+            throw error("Corrupted chunk list %s: unknown format", chunks.getName());
+        }
+        return in;
+    }
+
+    /** Returns a new path in the .gitlet directory for a file being
+     *  checked out, which is then renamed over the working file. */
+    static Path checkoutTempPath() {
+        return Repository.GITLET_DIR.toPath().resolve(".checkout-" + ProcessHandle.current().pid()
+                + "-" + checkoutTemps.incrementAndGet());
+    }
+
+    /** Creates the new file TMP with the contents of the blob OBJECTFILE,
+     *  made as MODE (COPY, LINK or CLONE) asks, and returns the number of
+     *  bytes copied.  A link is made to the copy of the blob in LINK_DIR,
+     *  never to the blob itself, so an edit through it cannot reach the
+     *  objects.  A blob that is deflated, chunked or packed is copied
+     *  rather than cloned, and so is one that cannot be linked or cloned.
+     *  May be called from several threads at once. */
+    static long materialize(File objectFile, Path tmp, String mode) throws IOException {
+        if (mode.equals(LINK)) {
+            long copied = refreshLinkCopy(objectFile);
+            try {
+                Files.createLink(tmp, join(Repository.LINK_DIR, objectFile.getName()).toPath());
+                return copied;
+            } catch (IOException | UnsupportedOperationException excp) {
+                tmp.toFile().delete();
+            }
+        }
+        if (!objectFile.isFile()) {
+            File chunks = chunkedFile(objectFile);
+            if (chunks.isFile()) {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp,
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), BUFFER_SIZE)) {
+                    return copyChunks(chunks, out);
+                }
+            }
+            byte[] contents = read(objectFile);
+            Files.write(tmp, contents, StandardOpenOption.CREATE_NEW);
+            return contents.length;
+        }
+        Path source = objectFile.toPath();
+        if (mode.equals(CLONE) && objectFile.length() >= MIN_CLONE_BYTES) {
+            if (clone(source, tmp)) {
+                return 0;
+            }
+            tmp.toFile().delete();
+        }
+        try (FileChannel in = FileChannel.open(source);
+             FileChannel out = FileChannel.open(tmp,
+                     StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long pos = 0;
+            while (pos < size) {
+                pos += in.transferTo(pos, size - pos, out);
+            }
+            return size;
+        }
+    }
+
+    /** Makes the copy in LINK_DIR of the blob OBJECTFILE, unless it is
+     *  there and its modification time shows it was not edited through a
+     *  working file linked to it, and returns the number of bytes copied.
+     *  A new copy replaces the old one by a rename, so a working file
+     *  edited in place keeps its contents. */
+    private static long refreshLinkCopy(File objectFile) throws IOException {
+        File copy = join(Repository.LINK_DIR, objectFile.getName());
+        if (copy.isFile() && copy.lastModified() == LINK_COPY_TIME) {
+            return 0;
+        }
+        Repository.LINK_DIR.mkdir();
+        Path tmp = checkoutTempPath();
+        try {
+            long copied = materialize(objectFile, tmp, COPY);
+            tmp.toFile().setLastModified(LINK_COPY_TIME);
+            tmp.toFile().setReadOnly();
+            Files.move(tmp, copy.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return copied;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Makes DEST a copy-on-write clone of SOURCE with "cp --reflink",
+     *  and returns true if the file system supports that. */
+    private static boolean clone(Path source, Path dest) {
+        try {
+            Process cp = new ProcessBuilder("cp", "--reflink=always",
+                    source.toString(), dest.toString())
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            return cp.waitFor() == 0 && dest.toFile().setWritable(true);
+        } catch (IOException excp) {
+            return false;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Returns true if the object referred to by OBJECTFILE exists. */
+    static boolean exists(File objectFile) {
+        return looseFile(objectFile) != null || pack().contains(objectFile.getName());
+    }
+
+    /** Returns the file storing the loose object referred to by
+     *  OBJECTFILE, deflated or not, or its chunk list, or null if it is
+     *  not loose. */
+    static File looseFile(File objectFile) {
+        if (objectFile.isFile()) {
+            return objectFile;
+        }
+        File deflated = deflatedFile(objectFile);
+        if (deflated.isFile()) {
+            return deflated;
+        }
+        File chunks = chunkedFile(objectFile);
+        return chunks.isFile() ? chunks : null;
+    }
+
+    /** Returns the file that lists the chunks of the blob OBJECTFILE. */
+    private static File chunkedFile(File objectFile) {
+        return new File(objectFile.getPath() + CHUNKED_SUFFIX);
+    }
+
+    /** Returns the file that stores the object OBJECTFILE deflated. */
+    private static File deflatedFile(File objectFile) {
+        return new File(objectFile.getPath() + DEFLATED_SUFFIX);
+    }
+
+    /** Returns the compression level of new blobs from the repo config. */
+    private static synchronized int compressionLevel() {
+        if (compressionLevel < 0) {
+            compressionLevel = compressionLevel(new Config(Repository.CONFIG_FILE));
+        }
+        return compressionLevel;
+    }
+
+    /** Returns the compression level of new blobs set in CONFIG. */
+    static int compressionLevel(Config config) {
+        return config.getInt("core.compression", 0, 0, Deflater.BEST_COMPRESSION);
+    }
+
+    /** Returns the bytes deflated in DEFLATED. */
+    private static byte[] inflate(byte[] deflated) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflated);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(2 * deflated.length);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    throw error("Corrupted object: truncated deflate stream");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException excp) {
+            throw error("Corrupted object: %s", excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Folds every loose blob and commit into the pack, deletes the
+     *  loose copies, and reports how much space that saved.  Chunked
+     *  blobs stay as they are, their chunks already stored only once.
+     *  BASES maps a blob id to an earlier version of the same file,
+     *  against which the blob is stored as a delta whenever that is smaller.
+     */
+    static void packLooseObjects(Map<String, String> bases) {
+        long before = pack().dataLength();
+        Pack.Writer writer = pack().writer();
+        List<File> looseFiles = new ArrayList<>();
+        int deltas = packObjects(writer, objectIds(Repository.OBJECT_DIR),
+                objectIds(Repository.COMMIT_DIR), objectIds(Repository.TREE_DIR),
+                id -> isPackable(join(Repository.OBJECT_DIR, id)), bases, looseFiles);
+        writer.close();
+        long packedBytes = pack().dataLength() - before;
+
+        /* The loose copies are only deleted once the index refers to the pack. */
+        long looseBytes = delete(looseFiles);
+        message("Packed %d objects (%d as deltas): %d bytes loose, %d bytes in pack.",
+                looseFiles.size(), deltas, looseBytes, packedBytes);
+    }
+
+    /** Adds the blobs BLOBIDS, the commits COMMITIDS and the tree nodes
+     *  TREEIDS to WRITER, adds
+     *  the files of those that were loose to LOOSEFILES, and returns the
+     *  number of blobs stored as deltas.  Only the blobs that are
+     *  AVAILABLE are added.  A blob is stored as a delta against its base
+     *  in BASES, which is added first if it is available. */
+    private static int packObjects(Pack.Writer writer, List<String> blobIds,
+                                   List<String> commitIds, List<String> treeIds,
+                                   Predicate<String> available,
+                                   Map<String, String> bases, List<File> looseFiles) {
+        int deltas = 0;
+        for (String id : blobIds) {
+            /* Packs the ancestors of a blob first, so they can be its base. */
+            LinkedList<String> chain = new LinkedList<>();
+            for (String b = id; b != null && !writer.contains(b) && !chain.contains(b)
+                    && available.test(b); b = bases.get(b)) {
+                chain.addFirst(b);
+            }
+            for (String b : chain) {
+                File blob = join(Repository.OBJECT_DIR, b);
+                File f = looseFile(blob);
+                if (f != null) {
+                    looseFiles.add(f);
+                }
+                if (packBlob(writer, b, read(blob), bases.get(b))) {
+                    deltas += 1;
+                }
+            }
+        }
+        for (String id : commitIds) {
+            File commit = join(Repository.COMMIT_DIR, id);
+            File f = looseFile(commit);
+            if (f != null) {
+                looseFiles.add(f);
+            }
+            writer.add(id, Pack.COMMIT, read(commit));
+        }
+        for (String id : treeIds) {
+            File tree = join(Repository.TREE_DIR, id);
+            File f = looseFile(tree);
+            if (f != null) {
+                looseFiles.add(f);
+            }
+            writer.add(id, Pack.TREE, read(tree));
+        }
+        return deltas;
+    }
+
+    /** Deletes FILES and returns the number of bytes they took. */
+    private static long delete(List<File> files) {
+        long bytes = 0;
+        for (File f : files) {
+            bytes += f.length();
+            f.delete();
+        }
+        return bytes;
+    }
+
+    /** Returns the ids of the objects stored loose in DIR. */
+    private static List<String> objectIds(File dir) {
+        List<String> ids = new ArrayList<>();
+        forEachObject(dir, name -> ids.add(name.substring(0, UID_LENGTH)));
+        return ids;
+    }
+
+    /** Calls ACTION with the name of each loose object in DIR, in no
+     *  particular order, without listing them all in memory at once. */
+    private static void forEachObject(File dir, Consumer<String> action) {
+        if (!dir.isDirectory()) {
+            return;
+        }
+        try (DirectoryStream<Path> names = Files.newDirectoryStream(dir.toPath())) {
+            for (Path p : names) {
+                String name = p.getFileName().toString();
+                if (OBJECT_NAME.matcher(name).matches()) {
+                    action.accept(name);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot list %s: %s", dir, excp.getMessage());
+        }
+    }
+
+    /** Returns the set of every object of this repo, loose or packed,
+     *  commits, trees, blobs and chunks alike, with none marked. */
+    static ObjectBitmap allObjects() {
+        ObjectBitmap objects = new ObjectBitmap();
+        for (File dir : new File[] {Repository.COMMIT_DIR, Repository.TREE_DIR,
+                Repository.OBJECT_DIR, Repository.CHUNK_DIR}) {
+            forEachObject(dir, name -> objects.add(name.substring(0, UID_LENGTH)));
+        }
+        Pack p = pack();
+        for (int i = 0; i < p.size(); i += 1) {
+            objects.add(p.idAt(i));
+        }
+        return objects;
+    }
+
+    /** Marks the blob BLOB in REACHABLE, and its chunks if it is chunked. */
+    static void markBlob(ObjectBitmap reachable, File blob) {
+        if (!reachable.mark(blob.getName())) {
+            return;
+        }
+        File chunks = chunkedFile(blob);
+        if (!chunks.isFile()) {
+            return;
+        }
+        try (DataInputStream in = openChunkList(chunks)) {
+            for (int n = readVarint(in); n > 0; n -= 1) {
+                reachable.mark(readUid(in));
+                readVarint(in);
+            }
+        } catch (IOException excp) {
+            throw error("Corrupted chunk list %s: %s", chunks.getName(), excp.getMessage());
+        }
+    }
+
+    /** Deletes the loose objects in DIR that are not marked in REACHABLE,
+     *  and returns the number of them and the bytes they took. */
+    static long[] sweep(File dir, ObjectBitmap reachable) {
+        long[] swept = new long[2];
+        forEachObject(dir, name -> {
+            if (!reachable.isMarked(name.substring(0, UID_LENGTH))) {
+                File f = join(dir, name);
+                long length = f.length();
+                if (f.delete()) {
+                    swept[0] += 1;
+                    swept[1] += length;
+                }
+            }
+        });
+        return swept;
+    }
+
+    /** Replaces the pack with a new one holding only the blobs, commits
+     *  and trees marked in REACHABLE, packed or loose, and deletes the loose copies.
+     *  Chunked blobs stay as they are.  BASES are the delta bases, as for
+     *  packLooseObjects.  Returns the number of packed objects dropped and
+     *  the number of bytes reclaimed. */
+    static long[] repack(ObjectBitmap reachable, Map<String, String> bases) {
+        File newDir = join(Repository.GITLET_DIR, "pack.new");
+        File oldDir = join(Repository.GITLET_DIR, "pack.old");
+        deleteFiles(newDir);
+        deleteFiles(oldDir);
+        long oldBytes = packBytes(Repository.PACK_DIR);
+
+        Pack old = pack();
+        List<String> blobIds = objectIds(Repository.OBJECT_DIR);
+        List<String> commitIds = new ArrayList<>();
+        for (String id : objectIds(Repository.COMMIT_DIR)) {
+            if (reachable.isMarked(id)) {
+                commitIds.add(id);
+            }
+        }
+        List<String> treeIds = new ArrayList<>();
+        for (String id : objectIds(Repository.TREE_DIR)) {
+            if (reachable.isMarked(id)) {
+                treeIds.add(id);
+            }
+        }
+        long dropped = 0;
+        for (int i = 0; i < old.size(); i += 1) {
+            String id = old.idAt(i);
+            if (!reachable.isMarked(id)) {
+                dropped += 1;
+            } else if (old.typeAt(i) == Pack.COMMIT) {
+                commitIds.add(id);
+            } else if (old.typeAt(i) == Pack.TREE) {
+                treeIds.add(id);
+            } else {
+                blobIds.add(id);
+            }
+        }
+        Pack.Writer writer = new Pack(newDir).writer();
+        List<File> looseFiles = new ArrayList<>();
+        packObjects(writer, blobIds, commitIds, treeIds, id -> reachable.isMarked(id)
+                && (isPackable(join(Repository.OBJECT_DIR, id)) || old.contains(id)),
+                bases, looseFiles);
+        writer.close();
+
+        try {
+            if (Repository.PACK_DIR.exists()) {
+                Files.move(Repository.PACK_DIR.toPath(), oldDir.toPath());
+            }
+            Files.move(newDir.toPath(), Repository.PACK_DIR.toPath());
+        } catch (IOException excp) {
+            throw error("Cannot replace the pack: %s", excp.getMessage());
+        }
+        synchronized (ObjectStore.class) {
+            pack = null;
+        }
+        deleteFiles(oldDir);
+        long looseBytes = delete(looseFiles);
+        return new long[] {dropped, oldBytes + looseBytes - packBytes(Repository.PACK_DIR)};
+    }
+
+    /** Returns the number of bytes taken by the pack in DIR. */
+    private static long packBytes(File dir) {
+        long bytes = 0;
+        if (!dir.isDirectory()) {
+            return bytes;
+        }
+        for (String name : plainFilenamesIn(dir)) {
+            bytes += join(dir, name).length();
+        }
+        return bytes;
+    }
+
+    /** Deletes DIR and the plain files in it, if it exists. */
+    private static void deleteFiles(File dir) {
+        if (!dir.isDirectory()) {
+            return;
+        }
+        for (String name : plainFilenamesIn(dir)) {
+            join(dir, name).delete();
+        }
+        dir.delete();
+    }
+
+    /** Returns true if OBJECTFILE is a loose blob that is not chunked. */
+    private static boolean isPackable(File objectFile) {
+        File loose = looseFile(objectFile);
+        return loose != null && !loose.getName().endsWith(CHUNKED_SUFFIX);
+    }
+
+    /** Adds the blob ID with CONTENT to WRITER, as a delta against BASEID
+     *  if that is possible and smaller.  Returns true if a delta was written. */
+    private static boolean packBlob(Pack.Writer writer, String id, byte[] content,
+                                    String baseId) {
+        int baseDepth = baseId == null ? -1 : writer.depth(baseId);
+        if (baseDepth >= 0 && baseDepth < Pack.MAX_DELTA_DEPTH) {
+            byte[] delta = Delta.encode(read(join(Repository.OBJECT_DIR, baseId)), content);
+            if (delta.length + UID_LENGTH / 2 < content.length) {
+                writer.addDelta(id, Pack.BLOB, baseId, delta);
+                return true;
+            }
+        }
+        writer.add(id, Pack.BLOB, content);
+        return false;
+    }
+}
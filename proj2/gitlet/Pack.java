@@ -0,0 +1,356 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.BufferedOutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** Represents a Gitlet packfile.
+ *  A pack stores many objects in a single append-only data file,
+ *  next to an index of their SHA-1 ids sorted for binary search,
+ *  so that an object is read with one seek instead of one file per object.
+ *  @author Min-Hsiu Hsu
+ */
+class Pack {
+    /** Pack entry type of a blob. */
+    static final byte BLOB = 1;
+    /** Pack entry type of a commit. */
+    static final byte COMMIT = 2;
+    /** Data entry type of an object stored as a delta against another one. */
+    static final byte DELTA = 3;
+    /** Pack entry type of a tree node. */
+    static final byte TREE = 4;
+    /** The longest chain of deltas that must be applied to read an object. */
+    static final int MAX_DELTA_DEPTH = 10;
+
+    /** Pack layout.
+     *  objects.pack:  "GLPK" version { type length payload }*
+     *  objects.idx:   "GLIX" version fanout[256] { id type offset }*
+     *  fanout[b] is the number of index entries whose first id byte is <= b.
+     *  The index always records the type of the object itself; its data entry
+     *  has type DELTA instead if the payload is a base id followed by a Delta.
+     */
+    private static final int PACK_MAGIC = 0x474c504b;
+    private static final int INDEX_MAGIC = 0x474c4958;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int FANOUT_BYTES = 256 * 4;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int ENTRY_BYTES = ID_BYTES + 1 + 8;
+
+    /** The append-only file holding the object payloads. */
+    private final File dataFile;
+    /** The file holding the sorted index of the data file. */
+    private final File indexFile;
+    /** The memory-mapped index, or null if not mapped yet. */
+    private MappedByteBuffer index;
+
+    /** A pack stored in DIR. */
+    Pack(File dir) {
+        dataFile = join(dir, "objects.pack");
+        indexFile = join(dir, "objects.idx");
+    }
+
+    /** Returns true if the object ID is in this pack. */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** Returns the type of the object ID, or 0 if it is not in this pack. */
+    byte type(String id) {
+        int i = find(id);
+        return i < 0 ? 0 : index.get(entryPos(i) + ID_BYTES);
+    }
+
+    /** Returns the payload of the object ID, or null if it is not in this pack. */
+    byte[] read(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return null;
+        }
+        byte[] entry = readEntry(index.getLong(entryPos(i) + ID_BYTES + 1));
+        if (entry[0] != DELTA) {
+            return Arrays.copyOfRange(entry, 1, entry.length);
+        }
+        byte[] base = read(bytesToUid(entry, 1, ID_BYTES));
+        if (base == null) {
+            throw error("Corrupted pack: missing delta base of %s", id);
+        }
+        return Delta.apply(base, entry, 1 + ID_BYTES);
+    }
+
+    /** Returns the number of deltas applied to read the object ID. */
+    int depth(String id) {
+        int depth = 0;
+        int i = find(id);
+        while (i >= 0) {
+            byte[] entry = readEntry(index.getLong(entryPos(i) + ID_BYTES + 1));
+            if (entry[0] != DELTA) {
+                break;
+            }
+            depth += 1;
+            i = find(bytesToUid(entry, 1, ID_BYTES));
+        }
+        return depth;
+    }
+
+    /** Returns the data entry at OFFSET as its type byte followed by its payload. */
+    private byte[] readEntry(long offset) {
+        try (RandomAccessFile data = new RandomAccessFile(dataFile, "r")) {
+            data.seek(offset);
+            byte type = data.readByte();
+            byte[] entry = new byte[1 + data.readInt()];
+            entry[0] = type;
+            data.readFully(entry, 1, entry.length - 1);
+            return entry;
+        } catch (IOException excp) {
+            throw error("Corrupted pack: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the ids of all objects of TYPE in this pack, in sorted order. */
+    List<String> ids(byte type) {
+        List<String> result = new ArrayList<>();
+        if (!mapIndex()) {
+            return result;
+        }
+        for (int i = 0; i < size(); i += 1) {
+            if (index.get(entryPos(i) + ID_BYTES) == type) {
+                result.add(idAt(i));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        if (!mapIndex()) {
+            return 0;
+        }
+        return index.getInt(HEADER_BYTES + FANOUT_BYTES - 4);
+    }
+
+    /** Returns the size in bytes of the data file of this pack. */
+    long dataLength() {
+        return dataFile.length();
+    }
+
+    /** Returns a Writer appending new objects to this pack. */
+    Writer writer() {
+        return new Writer();
+    }
+
+    /** Appends objects to the data file of a pack.  The index is rewritten
+     *  only by close, so readers never see an entry before its payload.
+     */
+    class Writer {
+        /** All index entries, old and new, as id -> {type, offset}. */
+        private final TreeMap<String, long[]> entries = new TreeMap<>();
+        /** Delta chain depths of the objects added by this writer. */
+        private final HashMap<String, Integer> depths = new HashMap<>();
+        private final DataOutputStream out;
+        private long offset;
+
+        private Writer() {
+            try {
+                dataFile.getParentFile().mkdirs();
+                boolean fresh = !dataFile.exists();
+                offset = fresh ? 0 : dataFile.length();
+                out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(dataFile, true)));
+                if (fresh) {
+                    out.writeInt(PACK_MAGIC);
+                    out.writeInt(VERSION);
+                    offset = HEADER_BYTES;
+                }
+            } catch (IOException excp) {
+                throw error("Cannot write pack: %s", excp.getMessage());
+            }
+            if (mapIndex()) {
+                for (int i = 0; i < size(); i += 1) {
+                    int pos = entryPos(i) + ID_BYTES;
+                    entries.put(idAt(i),
+                            new long[] {index.get(pos), index.getLong(pos + 1)});
+                }
+            }
+        }
+
+        /** Returns true if ID is already in the pack or added by this writer. */
+        boolean contains(String id) {
+            return entries.containsKey(id);
+        }
+
+        /** Appends PAYLOAD as the object ID of TYPE, unless it is already packed. */
+        void add(String id, byte type, byte[] payload) {
+            if (entries.containsKey(id)) {
+                return;
+            }
+            write(type, null, payload);
+            entries.put(id, new long[] {type, offset});
+            offset += 1 + 4 + payload.length;
+            depths.put(id, 0);
+        }
+
+        /** Appends the object ID of TYPE as DELTA against the packed object
+         *  BASEID, unless it is already packed. */
+        void addDelta(String id, byte type, String baseId, byte[] delta) {
+            if (entries.containsKey(id)) {
+                return;
+            }
+            write(DELTA, baseId, delta);
+            entries.put(id, new long[] {type, offset});
+            offset += 1 + 4 + ID_BYTES + delta.length;
+            depths.put(id, depth(baseId) + 1);
+        }
+
+        /** Returns the delta chain depth of the object ID in the pack, or -1
+         *  if ID is not in the pack. */
+        int depth(String id) {
+            if (!entries.containsKey(id)) {
+                return -1;
+            }
+            Integer d = depths.get(id);
+            return d != null ? d : Pack.this.depth(id);
+        }
+
+        /** Writes one data entry of TYPE, whose payload is BASEID, if not
+         *  null, followed by BYTES. */
+        private void write(byte type, String baseId, byte[] bytes) {
+            try {
+                out.writeByte(type);
+                if (baseId == null) {
+                    out.writeInt(bytes.length);
+                } else {
+                    out.writeInt(ID_BYTES + bytes.length);
+                    out.write(uidToBytes(baseId));
+                }
+                out.write(bytes);
+            } catch (IOException excp) {
+                throw error("Cannot write pack: %s", excp.getMessage());
+            }
+        }
+
+        /** Flushes the data file and atomically replaces the index. */
+        void close() {
+            File tmp = join(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+            try {
+                out.close();
+                int[] fanout = new int[256];
+                for (String id : entries.keySet()) {
+                    fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+                }
+                try (DataOutputStream idx = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                    idx.writeInt(INDEX_MAGIC);
+                    idx.writeInt(VERSION);
+                    int total = 0;
+                    for (int count : fanout) {
+                        total += count;
+                        idx.writeInt(total);
+                    }
+                    for (String id : entries.keySet()) {
+                        long[] e = entries.get(id);
+                        idx.write(uidToBytes(id));
+                        idx.writeByte((int) e[0]);
+                        idx.writeLong(e[1]);
+                    }
+                }
+                Files.move(tmp.toPath(), indexFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                throw error("Cannot write pack: %s", excp.getMessage());
+            }
+            index = null;
+        }
+    }
+
+    /** Maps the index file into memory if needed.  Returns false if there
+     *  is no index yet. */
+    private synchronized boolean mapIndex() {
+        if (index != null) {
+            return true;
+        }
+        if (!indexFile.isFile()) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(indexFile.toPath())) {
+            index = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw error("Corrupted pack index: %s", excp.getMessage());
+        }
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION) {
+            throw error("Corrupted pack index: %s", indexFile);
+        }
+        return true;
+    }
+
+    /** Returns the position in the index of entry I. */
+    private static int entryPos(int i) {
+        return HEADER_BYTES + FANOUT_BYTES + i * ENTRY_BYTES;
+    }
+
+    /** Returns the index entry number of ID, or -1 if it is absent. */
+    private int find(String id) {
+        if (id.length() != UID_LENGTH || !mapIndex()) {
+            return -1;
+        }
+        byte[] key = uidToBytes(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt(HEADER_BYTES + (first - 1) * 4);
+        int hi = index.getInt(HEADER_BYTES + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the id of index entry I with the binary id KEY as unsigned
+     *  bytes.  Uses absolute reads only, so lookups may run concurrently. */
+    private int compareId(int i, byte[] key) {
+        int pos = entryPos(i);
+        for (int k = 0; k < ID_BYTES; k += 1) {
+            int cmp = (index.get(pos + k) & 0xff) - (key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the type of the object at index entry I. */
+    byte typeAt(int i) {
+        return index.get(entryPos(i) + ID_BYTES);
+    }
+
+    /** Returns the hexadecimal id of index entry I, for I below size(). */
+    String idAt(int i) {
+        byte[] id = new byte[ID_BYTES];
+        int pos = entryPos(i);
+        for (int k = 0; k < ID_BYTES; k += 1) {
+            id[k] = index.get(pos + k);
+        }
+        return bytesToUid(id, 0, ID_BYTES);
+    }
+}
@@ -0,0 +1,241 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** A connection between two repos on the same machine, as in git: the
+ *  repo fetching or pushing starts a gitlet process in the working
+ *  directory of the remote repo, running "upload-pack" for a fetch or
+ *  "receive-pack" for a push, and talks to it over its standard input
+ *  and output, which that process keeps for this protocol alone.  Either
+ *  end sends the objects the other lacks as one stream, which the other
+ *  end appends to its pack.
+ *  @author Min-Hsiu Hsu
+ */
+class Remote implements AutoCloseable {
+    /** Protocol.  The serving end first sends branchCount { name headId }*.
+     *  upload-pack then reads wantId haveCount { haveId }* and sends an
+     *  object stream; a want of no id ends the exchange.  receive-pack
+     *  reads branchName headId and an object stream.  An object stream is
+     *  { type id length payload }* END, with types as in Pack, ids written
+     *  by Utils.writeUid and strings and counts by Utils.writeString and
+     *  writeVarint.  Commits come after the objects they refer to, and
+     *  parents before their children. */
+    static final byte END = 0;
+
+    /** The gitlet process serving the remote, or null at the serving end. */
+    private final Process process;
+    /** The stream from the other end. */
+    private final DataInputStream in;
+    /** The stream to the other end. */
+    private final DataOutputStream out;
+
+    /** A connection over IN and OUT, to PROCESS if not null. */
+    private Remote(Process process, InputStream in, OutputStream out) {
+        this.process = process;
+        this.in = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+    }
+
+    /** Returns a connection to a new gitlet process running SERVICE in the
+     *  working directory of the repo whose .gitlet directory is GITLETDIR.
+     *  The messages of that process go to the standard error of this one. */
+    static Remote connect(File gitletDir, String service) {
+        List<String> command = List.of(
+                join(new File(System.getProperty("java.home")), "bin", "java").getPath(),
+                "-cp", System.getProperty("java.class.path"), "gitlet.Main", service);
+        try {
+            Process p = new ProcessBuilder(command)
+                    .directory(gitletDir.getAbsoluteFile().getParentFile())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            return new Remote(p, p.getInputStream(), p.getOutputStream());
+        } catch (IOException excp) {
+            throw error("Cannot start gitlet for %s: %s", gitletDir, excp.getMessage());
+        }
+    }
+
+    /** Returns the serving end of a connection, over the standard input
+     *  and output of this process.  Messages printed from then on go to
+     *  the standard error, so they cannot corrupt the protocol. */
+    static Remote serve() {
+        OutputStream stdout = System.out;
+        System.setOut(System.err);
+        return new Remote(null, System.in, stdout);
+    }
+
+    /** Sends BRANCHES, the head commit id of each branch by name. */
+    void writeBranches(Map<String, String> branches) {
+        try {
+            writeVarint(out, branches.size());
+            for (Map.Entry<String, String> e : branches.entrySet()) {
+                writeString(out, e.getKey());
+                writeUid(out, e.getValue());
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw hungUp(excp);
+        }
+    }
+
+    /** Returns the branches sent by writeBranches. */
+    Map<String, String> readBranches() {
+        try {
+            Map<String, String> branches = new TreeMap<>();
+            for (int n = readVarint(in); n > 0; n -= 1) {
+                String name = readString(in);
+                branches.put(name, readUid(in));
+            }
+            return branches;
+        } catch (IOException excp) {
+            throw hungUp(excp);
+        }
+    }
+
+    /** Asks for the commit WANT, or for nothing if WANT is null, and all
+     *  it refers to but HAVES and what they refer to. */
+    void writeWant(String want, Collection<String> haves) {
+        try {
+            writeUid(out, want);
+            if (want != null) {
+                writeVarint(out, haves.size());
+                for (String id : haves) {
+                    writeUid(out, id);
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw hungUp(excp);
+        }
+    }
+
+    /** Returns the commit wanted and then the commits the other end has,
+     *  or an empty list if it wants nothing. */
+    List<String> readWant() {
+        try {
+            List<String> ids = new ArrayList<>();
+            String want = readUid(in);
+            if (want != null) {
+                ids.add(want);
+                for (int n = readVarint(in); n > 0; n -= 1) {
+                    ids.add(readUid(in));
+                }
+            }
+            return ids;
+        } catch (IOException excp) {
+            throw hungUp(excp);
+        }
+    }
+
+    /** Sends the branch NAME to be moved to the commit ID. */
+    void writeUpdate(String name, String id) {
+        try {
+            writeString(out, name);
+            writeUid(out, id);
+        } catch (IOException excp) {
+            throw hungUp(excp);
+        }
+    }
+
+    /** Returns the branch and the commit id sent by writeUpdate, or null
+     *  if the other end hung up before sending any. */
+    String[] readUpdate() {
+        try {
+            in.mark(1);
+            if (in.read() < 0) {
+                return null;
+            }
+            in.reset();
+            String name = readString(in);
+            return new String[] {name, readUid(in)};
+        } catch (IOException excp) {
+            throw hungUp(excp);
+        }
+    }
+
+    /** Sends the object ID of TYPE, whose contents are CONTENTS. */
+    void writeObject(byte type, String id, byte[] contents) {
+        try {
+            out.writeByte(type);
+            writeUid(out, id);
+            writeVarint(out, contents.length);
+            out.write(contents);
+        } catch (IOException excp) {
+            throw hungUp(excp);
+        }
+    }
+
+    /** Ends a stream of objects. */
+    void writeEnd() {
+        try {
+            out.writeByte(END);
+            out.flush();
+        } catch (IOException excp) {
+            throw hungUp(excp);
+        }
+    }
+
+    /** Reads a stream of objects into WRITER, checking the id of each
+     *  against its contents, and returns the ids of the commits in the
+     *  order they came. */
+    List<String> readObjects(Pack.Writer writer) {
+        List<String> commitIds = new ArrayList<>();
+        long bytes = 0;
+        int objects = 0;
+        try {
+            for (byte type = in.readByte(); type != END; type = in.readByte()) {
+                String id = readUid(in);
+                byte[] contents = new byte[readVarint(in)];
+                in.readFully(contents);
+                if (!sha1(contents).equals(id)) {
+                    throw error("Corrupted object %s from remote", id);
+                }
+                writer.add(id, type, contents);
+                if (type == Pack.COMMIT) {
+                    commitIds.add(id);
+                }
+                objects += 1;
+                bytes += contents.length;
+            }
+        } catch (IOException excp) {
+            throw hungUp(excp);
+        }
+        Trace.report("remote: received %d objects (%d commits), %d bytes",
+                objects, commitIds.size(), bytes);
+        return commitIds;
+    }
+
+    /** Ends this connection, and waits for the process serving the
+     *  remote, if any, to exit. */
+    @Override
+    public void close() {
+        try {
+            out.close();
+            if (process != null && process.waitFor() != 0) {
+                throw error("The gitlet process serving the remote failed.");
+            }
+        } catch (IOException excp) {
+            throw hungUp(excp);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted while waiting for the remote.");
+        }
+    }
+
+    /** Returns the error for a connection lost with EXCP. */
+    private static GitletException hungUp(IOException excp) {
+        return error("Connection to the remote lost: %s", excp.getMessage());
+    }
+}
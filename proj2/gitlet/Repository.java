@@ -1,8 +1,30 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.io.Serializable;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static gitlet.Utils.*;
 
@@ -26,35 +48,115 @@ public class Repository implements Serializable, Dumpable {
     private Map<File, File> commits;
     private HashMap<String, File> stagingArea;
 
+    /** Pinned so that repos saved by earlier versions of this class still load. */
+    private static final long serialVersionUID = -4867275747734143266L;
+
+    /** Snapshot encoding: "GLRP" version head
+     *  branchCount { name commitId }* commitCount { commitId parentId }*
+     *  stagedCount { fileName blobId }*, where ids are written by
+     *  Utils.writeUid (a file staged for removal has no blob id) and strings
+     *  by Utils.writeString. */
+    static final int MAGIC = 0x474c5250;
+    private static final int VERSION = 1;
+
     /** The current working directory. */
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** The .gitlet directory. */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
     /** The commits directory. */
     public static final File COMMIT_DIR = join(GITLET_DIR, "commits");
+    /** The trees directory storing the directory snapshots of commits. */
+    public static final File TREE_DIR = join(GITLET_DIR, "trees");
     /** The objects directory storing hashed files. */
     public static final File OBJECT_DIR = join(GITLET_DIR, "objects");
+    /** The chunks directory storing the chunks of large blobs, once each. */
+    public static final File CHUNK_DIR = join(GITLET_DIR, "chunks");
+    /** The copies of blobs that checkout.mode link links working files to. */
+    public static final File LINK_DIR = join(GITLET_DIR, "links");
+    /** The pack directory holding objects folded by "gitlet pack" or "gitlet gc --repack". */
+    public static final File PACK_DIR = join(GITLET_DIR, "pack");
+    /** The commit-graph file of all commits in this repo. */
+    public static final File COMMIT_GRAPH_FILE = join(GITLET_DIR, "commit-graph");
+    /** The sorted index of the commit ids in the commit-graph. */
+    public static final File COMMIT_INDEX_FILE = join(GITLET_DIR, "commit-ids");
+    /** The dates and message places of all commits, by commit-graph position. */
+    public static final File COMMIT_META_FILE = join(GITLET_DIR, "commit-meta");
+    /** The messages of all commits, referred to by the commit-meta file. */
+    public static final File COMMIT_MESSAGES_FILE = join(GITLET_DIR, "commit-messages");
+    /** The places of the changed-path filters of all commits, by commit-graph position. */
+    public static final File COMMIT_PATHS_FILE = join(GITLET_DIR, "commit-paths");
+    /** The changed-path filters of all commits, referred to by the commit-paths file. */
+    public static final File COMMIT_PATH_FILTERS_FILE = join(GITLET_DIR, "commit-path-filters");
+    /** The index of commit messages for "gitlet find". */
+    public static final File MESSAGE_INDEX_DIR = join(GITLET_DIR, "messages");
+    /** The settings of this repo. */
+    public static final File CONFIG_FILE = join(GITLET_DIR, "config");
+    /** The stat-cache of the working directory. */
+    public static final File STAT_CACHE_FILE = join(GITLET_DIR, "index");
+    /** The socket of the daemon serving this repo, if any. */
+    public static final File DAEMON_FILE = join(GITLET_DIR, "daemon");
     /** The filename of the repo snapshot instance. */
     public static final File REPO_FILE = join(GITLET_DIR, "HEAD");
+    /** The journal of the changes made to this repo since its snapshot. */
+    public static final File JOURNAL_FILE = join(GITLET_DIR, "journal");
+
+    /** A new snapshot is taken when the journal grows past this many bytes
+     *  and half the size of the snapshot, so its cost is amortized over
+     *  changes of a comparable size. */
+    private static final long MIN_CHECKPOINT_BYTES = 1 << 16;
+
+    /** The largest number of threads the setting checkout.workers may ask for. */
+    private static final int MAX_CHECKOUT_WORKERS = 256;
+    /** The number of unchanged lines shown around each change by diff. */
+    private static final int DIFF_CONTEXT = 3;
+    /** The widest bar of pluses and minuses drawn by diff --stat. */
+    private static final int DIFF_STAT_WIDTH = 50;
 
     private transient TreeMap<String, File> headCommitBlobs;
     private transient TreeMap<String, File> inputCommitBlobs;
     private transient List<String> untrackedFiles;
+    private transient CommitGraph graph;
+    private transient MessageIndex messageIndex;
+    private transient CommitMetadata metadata;
+    private transient ChangedPathFilters pathFilters;
+    private transient StatCache statCache;
+    private transient List<String[]> changes;
 
     /** Persistence structure.
      * CWD                              <==== Whatever the current working directory is.
      *  └── .gitlet                     <==== All persistant data is stored within here
-     *      ├── repo                    <==== A Repository instance stored as a file
+     *      ├── HEAD                    <==== A binary snapshot of the Repository instance
+     *      ├── journal                 <==== Changes to the Repository since the snapshot
+     *      ├── config                  <==== Settings of this repo, such as core.compression
+     *      ├── commit-graph            <==== Parents and generations of all commits
+     *      ├── commit-ids              <==== Sorted commit ids for prefix lookups
+     *      ├── commit-meta             <==== Dates and messages of all commits, for logs
+     *      ├── commit-messages
+     *      ├── commit-paths            <==== Bloom filters of the paths each commit changed
+     *      ├── commit-path-filters
+     *      ├── index                   <==== Stat data and blob ids of working files
+     *      ├── messages                <==== Commit ids bucketed by the SHA-1 of their message
+     *      ├   ├── list                <==== Every distinct commit message, once
+     *      ├   └── ...
      *      ├── commits                 <==== Where the commits are stored
      *      ├   ├── commit1             <==== A single Commit instance stored as a file
      *      ├   ├── ...
      *      ├   └── commitN
      *      ├
-     *      └── objects                 <==== All serialized files are stored in this directory
-     *          ├── Object1             <==== A single object instance stored to a file
-     *          ├── Object2
-     *          ├── ...
-     *          └── ObjectN
+     *      ├── trees                   <==== Nodes of the Tree of each directory committed
+     *      ├
+     *      ├── objects                 <==== All serialized files are stored in this directory
+     *      ├   ├── Object1             <==== A single object instance stored to a file
+     *      ├   ├── Object2.z           <==== An object deflated as core.compression asks
+     *      ├   ├── Object3.chunks      <==== The chunk list of a large blob
+     *      ├   ├── ...
+     *      ├   └── ObjectN
+     *      ├
+     *      ├── chunks                  <==== Content-defined chunks of large blobs, once each
+     *      ├
+     *      └── pack                    <==== Objects folded together by "gitlet pack"
+     *          ├── objects.pack        <==== Append-only payloads of packed objects
+     *          └── objects.idx         <==== Sorted SHA-1 index into objects.pack
      */
 
     /** Gitlet repository constructor. */
@@ -78,44 +180,51 @@ public class Repository implements Serializable, Dumpable {
         /* Add the first commit. */
         Commit initialCommit = new Commit();
         File initialCommitFile = initialCommit.saveCommit();
-        commits.put(initialCommitFile, initialCommit.getParentFile());
+        recordCommit(initialCommitFile, initialCommit);
 
         /* Create a branch "master". */
-        branches.put("master", initialCommitFile);
+        putBranch("master", initialCommitFile);
 
         /* Save the state of this repo. */
         this.saveRepo();
     }
 
-    /** Adds the input file to the staging area. */
-    public void add(String filePathName) {
-        File inputFile = new File(filePathName);
-        if (!inputFile.exists()) {
-            errorExit("File does not exist.");
+    /** Adds the input files to the staging area.  Each operand is a file,
+     *  a directory standing for the plain files in it, or a glob pattern
+     *  such as "*.txt".  Files are hashed and stored by a pool of workers,
+     *  and the repo is saved once at the end.
+     */
+    public void add(String... filePathNames) {
+        List<String> inputNames = expandPaths(filePathNames);
+
+        /* Get the File of each input file after SHA-1 hash, unless its stat data are unchanged.
+         * Changed files are hashed while they are copied into the objects directory. */
+        String[] inputIds = new String[inputNames.size()];
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < inputIds.length; i += 1) {
+            inputIds[i] = statCache().cachedBlobId(inputNames.get(i));
+            if (inputIds[i] == null || !ObjectStore.exists(join(OBJECT_DIR, inputIds[i]))) {
+                changed.add(i);
+            }
         }
+        writeBlobs(inputNames, changed, inputIds);
 
-        /* Get the content and File of the input file after SHA-1 hash. */
-        byte[] inputContent = readContents(inputFile);
-        File inputBlob = join(OBJECT_DIR, sha1(inputContent));
-
-        /* Get the blobs in the head commit and the corresponding blob of the input file */
+        /* Get the blobs in the head commit and the corresponding blob of each input file */
         /** Transient variables */
         Commit headCommit = getHeadCommit();
         headCommitBlobs = headCommit.getBlobs();
-        File prevBlob = headCommitBlobs.get(filePathName);
-
-        if (prevBlob == null) {
-            stageFile(filePathName, inputBlob, inputContent);
-            stagingArea.put(filePathName, inputBlob);
-            return;
-        }
-
-        if (prevBlob.equals(inputBlob)) {
-            unStageFile(filePathName, inputBlob);
-            return;
+        for (int i = 0; i < inputIds.length; i += 1) {
+            String filePathName = inputNames.get(i);
+            File inputBlob = join(OBJECT_DIR, inputIds[i]);
+            File prevBlob = headCommitBlobs.get(filePathName);
+            if (prevBlob != null && prevBlob.equals(inputBlob)) {
+                unStageFile(filePathName, inputBlob);
+            } else {
+                stageFile(filePathName, inputBlob);
+            }
         }
 
-        stageFile(filePathName, inputBlob, inputContent);
+        saveRepo();
     }
 
     /** Saves the current snapshot with staged files as a commit. */
@@ -128,21 +237,18 @@ public class Repository implements Serializable, Dumpable {
             errorExit("Please enter a commit message.");
         }
 
-        /* Updates the head commit with staged files. */
-        headCommitBlobs = getHeadCommit().getBlobs();
-        headCommitBlobs.putAll(stagingArea);
-
-        /* Removes keys with null values as untracking files. */
-        headCommitBlobs.values().removeAll(Collections.singleton(null));
+        /* Updates the tree of the head commit with staged files, where a
+           null blob untracks a file. */
+        String tree = Tree.update(getHeadCommit().getTree(), stagingArea);
 
         /* Creates a new commit. */
-        Commit c = new Commit(getHeadCommitFile(), commitMsg, headCommitBlobs);
+        Commit c = new Commit(getHeadCommitFile(), null, commitMsg, tree);
         File cFile = c.saveCommit();
-        commits.put(cFile, c.getParentFile());
-        branches.put(head, cFile);
+        recordCommit(cFile, c);
+        putBranch(head, cFile);
 
         /* Clears the staging area. */
-        stagingArea.clear();
+        clearStagingArea();
 
         saveRepo();
     }
@@ -156,11 +262,11 @@ public class Repository implements Serializable, Dumpable {
         }
 
         /* Unstages the file if it is added in the staging area. */
-        stagingArea.remove(filePathName);
+        unStageFile(filePathName, null);
 
         /* Stages the file for removal if it exists in the head commit. */
         if (isTracked) {
-            stagingArea.put(filePathName, null);
+            stageFile(filePathName, null);
             /* Removes the file from the working directory. */
             restrictedDelete(filePathName);
         }
@@ -168,39 +274,147 @@ public class Repository implements Serializable, Dumpable {
         saveRepo();
     }
 
-    /** Displays the log of the current head commit. */
-    public void log() {
-        Commit curCommit = getHeadCommit();
-        while (curCommit != null) {
-            curCommit.printLog();
-            curCommit = Commit.loadCommit(curCommit.getParentFile());
+    /** Displays the log of the current head commit.  At most LIMIT
+     *  commits made at or after SINCE (ms) are shown, and if PATHS is not
+     *  empty, only those that changed one of PATHS (files or directories). */
+    public void log(int limit, long since, List<String> paths) {
+        CommitGraph g = graph();
+        CommitMetadata meta = metadata(g.size());
+        ChangedPathFilters filters = paths.isEmpty() ? null : pathFilters(g.size());
+        PrintStream out = logStream();
+        int shown = 0;
+        int skipped = 0;
+        int loaded = 0;
+        for (int p = graphPosition(getHeadCommitFile());
+             p != CommitGraph.NONE && shown < limit && meta.date(p) >= since;
+             p = g.parent(p)) {
+            if (filters != null) {
+                if (!mightChange(filters, p, paths)) {
+                    skipped += 1;
+                    continue;
+                }
+                loaded += 1;
+                if (!changes(g, p, paths)) {
+                    continue;
+                }
+            }
+            printLog(out, g, meta, p);
+            shown += 1;
+        }
+        out.flush();
+        if (filters != null) {
+            Trace.report("log: %d commits skipped by their changed-path filter, %d loaded",
+                    skipped, loaded);
         }
     }
 
-    /** Displays the logs about all the commits ever made. */
-    public void globalLog() {
-        for (File cFile : commits.keySet()) {
-            Commit.loadCommit(cFile).printLog();
+    /** Returns true if the changed-path filter of the commit at position P
+     *  may hold any of PATHS. */
+    private static boolean mightChange(ChangedPathFilters filters, int p, List<String> paths) {
+        for (String path : paths) {
+            if (filters.mightChange(p, path)) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    /** Returns true if the commit at position P of G changed any of PATHS,
+     *  or any file under one of them, from its first parent.  Where both
+     *  have trees, only the entries at PATHS are looked up and compared. */
+    private static boolean changes(CommitGraph g, int p, List<String> paths) {
+        Commit c = Commit.loadCommit(join(COMMIT_DIR, g.id(p)));
+        int parent = g.parent(p);
+        Commit parentCommit = parent == CommitGraph.NONE ? null
+                : Commit.loadCommit(join(COMMIT_DIR, g.id(parent)));
+        if (!c.isFlat() && (parentCommit == null || !parentCommit.isFlat())) {
+            String parentTree = parentCommit == null ? null : parentCommit.getTree();
+            for (String path : paths) {
+                if (!Objects.equals(Tree.lookup(c.getTree(), path),
+                        Tree.lookup(parentTree, path))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        TreeMap<String, File> blobs = c.getBlobs();
+        TreeMap<String, File> parentBlobs = parentCommit == null ? new TreeMap<>()
+                : parentCommit.getBlobs();
+        for (String path : paths) {
+            String dir = path + "/";
+            if (!Objects.equals(blobs.get(path), parentBlobs.get(path))
+                    || !blobs.subMap(dir, dir + Character.MAX_VALUE)
+                            .equals(parentBlobs.subMap(dir, dir + Character.MAX_VALUE))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Displays the logs about all the commits ever made, newest first.
+     *  At most LIMIT commits made at or after SINCE (ms) are shown. */
+    public void globalLog(int limit, long since) {
+        CommitGraph g = graph();
+        CommitMetadata meta = metadata(g.size());
+        PrintStream out = logStream();
+        int shown = 0;
+        for (int p = g.size() - 1; p >= 0 && shown < limit; p -= 1) {
+            if (meta.date(p) >= since) {
+                printLog(out, g, meta, p);
+                shown += 1;
+            }
+        }
+        out.flush();
+    }
+
+    /** Prints to OUT the log of the commit at position P of G, from its
+     *  metadata META alone. */
+    private static void printLog(PrintStream out, CommitGraph g, CommitMetadata meta, int p) {
+        int mergeParent = g.mergeParent(p);
+        Commit.printLog(out, g.id(p),
+                mergeParent == CommitGraph.NONE ? null : g.id(g.parent(p)),
+                mergeParent == CommitGraph.NONE ? null : g.id(mergeParent),
+                meta.date(p), meta.message(p));
+    }
+
+    /** Returns a stream to the standard output that is only flushed when
+     *  its buffer fills, unlike System.out which flushes every line. */
+    private static PrintStream logStream() {
+        return new PrintStream(new BufferedOutputStream(System.out, BUFFER_SIZE), false);
     }
 
     /** Prints the commit IDs of those commits matches
      * the input commitMsg.
      */
     public void find(String searchMsg) {
-        boolean found = false;
-        for (File cFile: commits.keySet()) {
-            String commitMsg = Commit.loadCommit(cFile).getCommitMsg();
-            String commitId = Commit.loadCommit(cFile).getSha1();
-            if (commitMsg.equals(searchMsg)) {
-                System.out.println(commitId);
-                found = true;
+        printFound(messageIndex().find(searchMsg));
+    }
+
+    /** Prints the commit IDs of the commits whose message contains TEXT,
+     *  or matches TEXT as a regular expression if ISREGEX. */
+    public void find(String text, boolean isRegex) {
+        Predicate<String> matches;
+        if (isRegex) {
+            try {
+                matches = Pattern.compile(text).asPredicate();
+            } catch (PatternSyntaxException excp) {
+                errorExit("Invalid regular expression: %s", excp.getDescription());
+                return;
             }
+        } else {
+            matches = msg -> msg.contains(text);
         }
+        printFound(messageIndex().search(matches));
+    }
 
-        if (!found) {
+    /** Prints the commit IDS found by find, one per line. */
+    private void printFound(List<String> ids) {
+        if (ids.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
+        for (String id : ids) {
+            System.out.println(id);
+        }
     }
 
     /** Displays what branches currently exist, and marks the current branch with a *.
@@ -245,8 +459,11 @@ public class Repository implements Serializable, Dumpable {
         }
         System.out.println();
 
-        /* Prints modification but not staged info. (Not implemented.) */
+        /* Prints modification but not staged info. */
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (String mf : getModifiedFiles()) {
+            System.out.println(mf);
+        }
         System.out.println();
 
         /* Prints untracked files. */
@@ -256,6 +473,7 @@ public class Repository implements Serializable, Dumpable {
         }
         System.out.println();
 
+        statCache().save();
     }
 
     /** Performs checkouts to a file in the current head commit. */
@@ -265,9 +483,7 @@ public class Repository implements Serializable, Dumpable {
             errorExit("File does not exist in that commit.");
         }
 
-        File checkoutFile = join(CWD, inputFileName);
-        byte[] checkoutContent = readContents(headCommitBlobs.get(inputFileName));
-        writeContents(checkoutFile, checkoutContent);
+        writeWorkingFile(inputFileName, headCommitBlobs.get(inputFileName));
     }
 
     /** Performs checkouts to a file in a given commitId. */
@@ -283,9 +499,7 @@ public class Repository implements Serializable, Dumpable {
             errorExit("File does not exist in that commit.");
         }
 
-        File checkoutFile = join(CWD, inputFileName);
-        byte[] checkoutContent = readContents(inputCommitBlobs.get(inputFileName));
-        writeContents(checkoutFile, checkoutContent);
+        writeWorkingFile(inputFileName, inputCommitBlobs.get(inputFileName));
     }
 
     /** Performs checkouts to a given branch. */
@@ -300,30 +514,55 @@ public class Repository implements Serializable, Dumpable {
 
         /* Makes sure no untracked file is overwritten. */
         overwrittenHelper(branches.get(inputBranchName));
+        checkoutCommit();
 
         /* Sets the HEAD to be the head commit of the given branch. */
-        head = inputBranchName;
+        setHead(inputBranchName);
+        saveRepo();
+    }
+
+    /** Replaces the files of the head commit in the working directory by
+     *  those of the commit whose files overwrittenHelper has just checked,
+     *  and clears the staging area.  Neither moves the head nor saves the
+     *  repo, so a checkout that fails leaves the repo as it was. */
+    private void checkoutCommit() {
+        headCommitBlobs = getHeadCommit().getBlobs();
 
-        /* Overwrites/checkouts a file to the given branch (the new head commit.) */
-        for (String fileName : inputCommitBlobs.keySet()) {
-            checkout(fileName);
+        /* Overwrites/checkouts a file to the given branch (the new head commit),
+         * unless the working file already holds that very blob.  Paths whose blob
+         * differs from the old head are written outright; for the others the
+         * stat-cache tells whether the working file was modified. */
+        TreeMap<String, File> changedFiles = new TreeMap<>();
+        for (Map.Entry<String, File> e : inputCommitBlobs.entrySet()) {
+            String fileName = e.getKey();
+            File blob = e.getValue();
+            boolean sameAsHead = blob.equals(headCommitBlobs.get(fileName));
+            String workingId = sameAsHead ? statCache().blobId(fileName)
+                    : statCache().cachedBlobId(fileName);
+            if (!blob.getName().equals(workingId)) {
+                changedFiles.put(fileName, blob);
+            }
         }
+        long bytes = writeWorkingFiles(changedFiles);
 
         /* Removes the files tracked in the current branch but not present in the given branch */
         List<String> trackedFiles = new ArrayList<>(plainFilenamesIn(CWD));
         trackedFiles.removeAll(untrackedFiles);
 
+        int deleted = 0;
         for (String tf : trackedFiles) {
             if (!inputCommitBlobs.containsKey(tf)) {
                 File rf = join(CWD, tf);
                 rf.delete();
+                deleted += 1;
             }
         }
+        Trace.report("checkout: %d files written (%d bytes), %d deleted, %d unchanged",
+                changedFiles.size(), bytes, deleted,
+                inputCommitBlobs.size() - changedFiles.size());
 
         /* Clears the staging area. */
-        stagingArea.clear();
-
-        saveRepo();
+        clearStagingArea();
     }
 
     /** Creates a new branch in this repo. */
@@ -332,7 +571,7 @@ public class Repository implements Serializable, Dumpable {
             errorExit("A branch with that name already exists.");
         }
 
-        branches.put(inputBranchName, getHeadCommitFile());
+        putBranch(inputBranchName, getHeadCommitFile());
         saveRepo();
     }
 
@@ -346,7 +585,7 @@ public class Repository implements Serializable, Dumpable {
             errorExit("Cannot remove the current branch.");
         }
 
-        branches.remove(inputBranchName);
+        removeBranchEntry(inputBranchName);
 
         saveRepo();
     }
@@ -364,24 +603,10 @@ public class Repository implements Serializable, Dumpable {
         */
         File inputCommitFile = join(COMMIT_DIR, inputCommitId);
         overwrittenHelper(inputCommitFile);
-
-
-
-        /* Creates a dummy branch. */
-        branch("dummy");
+        checkoutCommit();
 
         /* Moves the head commit to the given commit. */
-        String curBranch = head;
-        branches.put(curBranch, inputCommitFile);
-
-        /* Moves head to "dummy" to work around the failure case of checkout. */
-        head = "dummy";
-        checkoutBranch(curBranch);
-
-        /* Removes the dummy branch. */
-        head = curBranch;
-        removeBranch("dummy");
-
+        putBranch(head, inputCommitFile);
         saveRepo();
     }
 
@@ -392,17 +617,17 @@ public class Repository implements Serializable, Dumpable {
         }
         File curHeadCommitFile = branches.get(head);
         File givenHeadCommitFile = branches.get(inputBranchName);
-        File splitCommitFile = findLatestSplitCommit(curHeadCommitFile,
-                givenHeadCommitFile);
-        String givenHeadCommitId = Commit.loadCommit(givenHeadCommitFile).getSha1();
+        int curPos = graphPosition(curHeadCommitFile);
+        int givenPos = graphPosition(givenHeadCommitFile);
+        String givenHeadCommitId = givenHeadCommitFile.getName();
 
         /* Given branch is an ancestor of the current branch. */
-        if (splitCommitFile.equals(givenHeadCommitFile)) {
+        if (graph().isAncestor(givenPos, curPos)) {
             System.out.println("Given branch is an ancestor of the current branch.");
             return;
         }
         /* Current branch fast-forwarded. */
-        if (splitCommitFile.equals(curHeadCommitFile)) {
+        if (graph().isAncestor(curPos, givenPos)) {
             checkoutBranch(inputBranchName);
             System.out.println("Current branch fast-forwarded.");
             return;
@@ -412,6 +637,7 @@ public class Repository implements Serializable, Dumpable {
                 Commit.loadCommit(curHeadCommitFile).getBlobs();
         TreeMap<String, File> givenHeadCommitBlobs =
                 Commit.loadCommit(givenHeadCommitFile).getBlobs();
+        File splitCommitFile = join(COMMIT_DIR, graph().id(graph().mergeBase(curPos, givenPos)));
         TreeMap<String, File> splitCommitBlobs =
                 Commit.loadCommit(splitCommitFile).getBlobs();
         Set<String> unionFileNames = new HashSet<>();
@@ -434,9 +660,9 @@ public class Repository implements Serializable, Dumpable {
                 }
                 if (!splitCommitBlobs.get(n).equals(curHeadCommitBlobs.get(n))
                         && !splitCommitBlobs.get(n).equals(givenHeadCommitBlobs.get(n))) {
-                    mergeConflict(n, curHeadCommitBlobs.get(n), givenHeadCommitBlobs.get(n));
+                    isInConflict |= mergeFile(n, splitCommitBlobs.get(n),
+                            curHeadCommitBlobs.get(n), givenHeadCommitBlobs.get(n));
                     add(n);
-                    isInConflict = true;
                 }
             } else if (!existsSplit && !existsCur && existsGiven) {
                 checkout(givenHeadCommitId, n);
@@ -445,21 +671,21 @@ public class Repository implements Serializable, Dumpable {
                 if (splitCommitBlobs.get(n).equals(curHeadCommitBlobs.get(n))) {
                     rm(n);
                 } else {
-                    mergeConflict(n, curHeadCommitBlobs.get(n), givenHeadCommitBlobs.get(n));
+                    isInConflict |= mergeFile(n, splitCommitBlobs.get(n),
+                            curHeadCommitBlobs.get(n), givenHeadCommitBlobs.get(n));
                     add(n);
-                    isInConflict = true;
                 }
             } else if (!existsSplit && existsCur && existsGiven) {
                 if (!curHeadCommitBlobs.get(n).equals(givenHeadCommitBlobs.get(n))) {
-                    mergeConflict(n, curHeadCommitBlobs.get(n), givenHeadCommitBlobs.get(n));
+                    isInConflict |= mergeFile(n, splitCommitBlobs.get(n),
+                            curHeadCommitBlobs.get(n), givenHeadCommitBlobs.get(n));
                     add(n);
-                    isInConflict = true;
                 }
             } else if (existsSplit && !existsCur && existsGiven) {
                 if (!splitCommitBlobs.get(n).equals(givenHeadCommitBlobs.get(n))) {
-                    mergeConflict(n, curHeadCommitBlobs.get(n), givenHeadCommitBlobs.get(n));
+                    isInConflict |= mergeFile(n, splitCommitBlobs.get(n),
+                            curHeadCommitBlobs.get(n), givenHeadCommitBlobs.get(n));
                     add(n);
-                    isInConflict = true;
                 }
             }
         }
@@ -470,21 +696,661 @@ public class Repository implements Serializable, Dumpable {
         }
     }
 
-    /** Saves the current state of this repo. */
+    /** Prints the changes between two versions of the files of this repo
+     *  as unified diffs, or if STAT, the number of lines changed in each
+     *  file.  With no REVISIONS, the staged versions are compared with the
+     *  working files; with one, that commit is compared with the working
+     *  files; with two, the first commit with the second.  A revision is a
+     *  branch name or a commit id.  Only the files in PATHS, or in
+     *  directories in PATHS, are compared, unless PATHS is empty. */
+    public void diff(List<String> revisions, List<String> paths, boolean stat) {
+        if (!GITLET_DIR.exists()) {
+            errorExit("Not in an initialized Gitlet directory.");
+        }
+        TreeMap<String, File> staged = new TreeMap<>(getHeadCommit().getBlobs());
+        staged.putAll(stagingArea);
+        staged.values().removeIf(Objects::isNull);
+        TreeMap<String, File> from = revisions.isEmpty() ? staged : revisionBlobs(revisions.get(0));
+        TreeMap<String, File> to = revisions.size() == 2 ? revisionBlobs(revisions.get(1)) : null;
+
+        SortedSet<String> names = new TreeSet<>(from.keySet());
+        names.addAll(to == null ? staged.keySet() : to.keySet());
+        names.removeIf(n -> !paths.isEmpty() && paths.stream().noneMatch(
+                p -> n.equals(p) || n.startsWith(p.endsWith("/") ? p : p + "/")));
+
+        PrintStream out = logStream();
+        List<String> statNames = new ArrayList<>();
+        List<int[]> statCounts = new ArrayList<>();
+        for (String name : names) {
+            File fromBlob = from.get(name);
+            byte[] toContents;
+            if (to != null) {
+                File toBlob = to.get(name);
+                if (Objects.equals(fromBlob, toBlob)) {
+                    continue;
+                }
+                toContents = toBlob == null ? null : ObjectStore.read(toBlob);
+            } else {
+                /* Working files are only read if the stat-cache shows a change. */
+                String workingId = staged.containsKey(name) ? statCache().blobId(name) : null;
+                if (workingId == null ? fromBlob == null
+                        : fromBlob != null && workingId.equals(fromBlob.getName())) {
+                    continue;
+                }
+                toContents = workingId == null ? null : readContents(join(CWD, name));
+            }
+            byte[] fromContents = fromBlob == null ? null : ObjectStore.read(fromBlob);
+
+            boolean binary = (fromContents != null && Diff.isBinary(fromContents))
+                    || (toContents != null && Diff.isBinary(toContents));
+            Diff diff = binary ? null : new Diff(fromContents == null ? new byte[0] : fromContents,
+                    toContents == null ? new byte[0] : toContents);
+            if (stat) {
+                statNames.add(name);
+                statCounts.add(binary ? null : new int[] {diff.insertions(), diff.deletions()});
+                continue;
+            }
+            String fromName = fromContents == null ? "/dev/null" : "a/" + name;
+            String toName = toContents == null ? "/dev/null" : "b/" + name;
+            out.println("diff --git a/" + name + " b/" + name);
+            if (binary) {
+                out.println("Binary files " + fromName + " and " + toName + " differ");
+            } else if (!diff.changes().isEmpty()) {
+                out.println("--- " + fromName);
+                out.println("+++ " + toName);
+                diff.printHunks(out, DIFF_CONTEXT);
+            }
+        }
+        if (stat) {
+            printDiffStat(out, statNames, statCounts);
+        }
+        out.flush();
+        statCache().save();
+    }
+
+    /** Prints to OUT a summary of the lines inserted and deleted in the
+     *  files NAMES, as given by COUNTS, which is null for a binary file. */
+    private static void printDiffStat(PrintStream out, List<String> names, List<int[]> counts) {
+        int nameWidth = 0;
+        int most = 0;
+        int insertions = 0;
+        int deletions = 0;
+        for (int i = 0; i < names.size(); i += 1) {
+            nameWidth = Math.max(nameWidth, names.get(i).length());
+            int[] c = counts.get(i);
+            if (c != null) {
+                most = Math.max(most, c[0] + c[1]);
+                insertions += c[0];
+                deletions += c[1];
+            }
+        }
+        int countWidth = Math.max(3, Integer.toString(most).length());
+        for (int i = 0; i < names.size(); i += 1) {
+            int[] c = counts.get(i);
+            String change;
+            if (c == null) {
+                change = String.format("%" + countWidth + "s", "Bin");
+            } else {
+                /* Scales the bar so that the largest change fits. */
+                int plus = c[0];
+                int minus = c[1];
+                if (most > DIFF_STAT_WIDTH) {
+                    plus = (int) Math.ceil((double) plus * DIFF_STAT_WIDTH / most);
+                    minus = (int) Math.ceil((double) minus * DIFF_STAT_WIDTH / most);
+                }
+                change = String.format("%" + countWidth + "d ", c[0] + c[1])
+                        + "+".repeat(plus) + "-".repeat(minus);
+            }
+            out.printf(" %-" + nameWidth + "s | %s%n", names.get(i), change.stripTrailing());
+        }
+        if (!names.isEmpty()) {
+            out.printf(" %d file%s changed", names.size(), names.size() == 1 ? "" : "s");
+            if (insertions > 0) {
+                out.printf(", %d insertion%s(+)", insertions, insertions == 1 ? "" : "s");
+            }
+            if (deletions > 0) {
+                out.printf(", %d deletion%s(-)", deletions, deletions == 1 ? "" : "s");
+            }
+            out.println();
+        }
+    }
+
+    /** Returns the blobs of the commit named by REVISION, a branch name or
+     *  a commit id. */
+    private TreeMap<String, File> revisionBlobs(String revision) {
+        File commitFile = branches.get(revision);
+        if (commitFile == null) {
+            String id = searchCommitId(revision);
+            if (id == null) {
+                errorExit("No commit with that id exists.");
+            }
+            commitFile = join(COMMIT_DIR, id);
+        }
+        return Commit.loadCommit(commitFile).getBlobs();
+    }
+
+    /** Prints the value of the setting KEY of this repo, or sets it to
+     *  VALUE if that is given. */
+    public void config(String key, String value) {
+        if (!GITLET_DIR.exists()) {
+            errorExit("Not in an initialized Gitlet directory.");
+        }
+        Config config = new Config(CONFIG_FILE);
+        if (value != null) {
+            config.put(key, value);
+            checkSetting(config, key);
+            config.save();
+        } else if (config.get(key) != null) {
+            System.out.println(config.get(key));
+        }
+    }
+
+    /** Folds the loose blobs and commits of this repo into its pack. */
+    public void pack() {
+        if (!GITLET_DIR.exists()) {
+            errorExit("Not in an initialized Gitlet directory.");
+        }
+        ObjectStore.packLooseObjects(deltaBases());
+    }
+
+    /** Deletes the commits that no branch reaches, and the trees, blobs
+     *  and chunks that neither those commits nor the staging area refer
+     *  to, and reports the bytes reclaimed.  Objects are marked in a bitmap
+     *  over all object ids, and commits are walked by commit-graph
+     *  position.  A tree already marked is not walked again, as all
+     *  under it is marked too.  Unreachable objects in the pack are only dropped with
+     *  REPACK, which also folds the loose objects left into a new pack. */
+    public void gc(boolean repack) {
+        if (!GITLET_DIR.exists()) {
+            errorExit("Not in an initialized Gitlet directory.");
+        }
+        ObjectBitmap reachable = ObjectStore.allObjects();
+        CommitGraph g = graph();
+        BitSet visited = new BitSet(g.size());
+        Deque<Integer> fringe = new ArrayDeque<>();
+        for (File branchHead : branches.values()) {
+            fringe.push(graphPosition(branchHead));
+        }
+        while (!fringe.isEmpty()) {
+            int p = fringe.pop();
+            if (p == CommitGraph.NONE || visited.get(p)) {
+                continue;
+            }
+            visited.set(p);
+            reachable.mark(g.id(p));
+            Commit c = Commit.loadCommit(join(COMMIT_DIR, g.id(p)));
+            if (c.isFlat()) {
+                for (File blob : c.getBlobs().values()) {
+                    ObjectStore.markBlob(reachable, blob);
+                }
+            } else {
+                Tree.mark(reachable, c.getTree());
+            }
+            fringe.push(g.parent(p));
+            fringe.push(g.mergeParent(p));
+        }
+        for (File blob : stagingArea.values()) {
+            if (blob != null) {
+                ObjectStore.markBlob(reachable, blob);
+            }
+        }
+
+        /* Forgets the unreachable commits before any object is deleted. */
+        int removed = commits.size();
+        commits.keySet().removeIf(cFile -> !reachable.isMarked(cFile.getName()));
+        removed -= commits.size();
+        if (removed > 0) {
+            graph = null;
+            metadata = null;
+            pathFilters = null;
+            messageIndex = null;
+            COMMIT_GRAPH_FILE.delete();
+            COMMIT_INDEX_FILE.delete();
+            new CommitMetadata(COMMIT_META_FILE, COMMIT_MESSAGES_FILE).clear();
+            new ChangedPathFilters(COMMIT_PATHS_FILE, COMMIT_PATH_FILTERS_FILE).clear();
+            new MessageIndex(MESSAGE_INDEX_DIR).delete();
+            checkpoint(new Journal(JOURNAL_FILE));
+        }
+
+        long objects = 0;
+        long reclaimed = 0;
+        for (File dir : new File[] {COMMIT_DIR, TREE_DIR, OBJECT_DIR, CHUNK_DIR}) {
+            long[] swept = ObjectStore.sweep(dir, reachable);
+            objects += swept[0];
+            reclaimed += swept[1];
+        }
+        reclaimed += ObjectStore.sweep(LINK_DIR, reachable)[1];
+        if (repack) {
+            long[] dropped = ObjectStore.repack(reachable, deltaBases());
+            objects += dropped[0];
+            reclaimed += dropped[1];
+        }
+        message("Removed %d commits: %d objects deleted, %d bytes reclaimed.",
+                removed, objects, reclaimed);
+    }
+
+    /** Saves the repo whose .gitlet directory is PATH, in which "/"
+     *  separates directories, as the remote NAME. */
+    public void addRemote(String name, String path) {
+        if (!GITLET_DIR.exists()) {
+            errorExit("Not in an initialized Gitlet directory.");
+        }
+        Config config = new Config(CONFIG_FILE);
+        if (config.get(remoteKey(name)) != null) {
+            errorExit("A remote with that name already exists.");
+        }
+        config.set(remoteKey(name), path);
+    }
+
+    /** Forgets the remote NAME. */
+    public void removeRemote(String name) {
+        if (!GITLET_DIR.exists()) {
+            errorExit("Not in an initialized Gitlet directory.");
+        }
+        Config config = new Config(CONFIG_FILE);
+        if (config.get(remoteKey(name)) == null) {
+            errorExit("A remote with that name does not exist.");
+        }
+        config.unset(remoteKey(name));
+    }
+
+    /** Returns the setting holding the path of the remote NAME. */
+    private static String remoteKey(String name) {
+        return "remote." + name + ".path";
+    }
+
+    /** Returns the .gitlet directory of the remote NAME, which must exist. */
+    private static File remoteDir(String name) {
+        String path = new Config(CONFIG_FILE).get(remoteKey(name));
+        if (path == null) {
+            errorExit("A remote with that name does not exist.");
+        }
+        File dir = new File(path.replace("/", File.separator));
+        if (!dir.isAbsolute()) {
+            dir = join(CWD, dir.getPath());
+        }
+        if (!dir.isDirectory()) {
+            errorExit("Remote directory not found.");
+        }
+        return dir;
+    }
+
+    /** Copies the branch BRANCHNAME of the remote REMOTENAME into the
+     *  branch REMOTENAME/BRANCHNAME of this repo, with the commits and
+     *  objects this repo lacks, which are appended to its pack. */
+    public void fetch(String remoteName, String branchName) {
+        if (!GITLET_DIR.exists()) {
+            errorExit("Not in an initialized Gitlet directory.");
+        }
+        String id;
+        try (Remote remote = Remote.connect(remoteDir(remoteName), "upload-pack")) {
+            id = remote.readBranches().get(branchName);
+            if (id == null) {
+                /* Asks for nothing, which ends the exchange. */
+                remote.writeWant(null, null);
+            } else {
+                remote.writeWant(id, haves());
+                receiveObjects(remote);
+            }
+        }
+        if (id == null) {
+            errorExit("That remote does not have that branch.");
+        }
+        putBranch(remoteName + "/" + branchName, join(COMMIT_DIR, id));
+        saveRepo();
+    }
+
+    /** Fetches the branch BRANCHNAME of the remote REMOTENAME, and merges
+     *  it into the current branch. */
+    public void pull(String remoteName, String branchName) {
+        fetch(remoteName, branchName);
+        merge(remoteName + "/" + branchName);
+    }
+
+    /** Moves the branch BRANCHNAME of the remote REMOTENAME, creating it if
+     *  needed, to the head commit of this repo, sending the commits and
+     *  objects the remote lacks.  The branch must not have commits that
+     *  the head commit does not have. */
+    public void push(String remoteName, String branchName) {
+        if (!GITLET_DIR.exists()) {
+            errorExit("Not in an initialized Gitlet directory.");
+        }
+        boolean behind = false;
+        try (Remote remote = Remote.connect(remoteDir(remoteName), "receive-pack")) {
+            Map<String, String> remoteBranches = remote.readBranches();
+            String remoteHead = remoteBranches.get(branchName);
+            if (remoteHead != null) {
+                int headPos = graphPosition(getHeadCommitFile());
+                int p = graph().position(remoteHead);
+                behind = p == CommitGraph.NONE || !graph().isAncestor(p, headPos);
+            }
+            /* Sending no update ends the exchange. */
+            if (!behind) {
+                remote.writeUpdate(branchName, getHeadCommitFile().getName());
+                sendObjects(remote, getHeadCommitFile().getName(), remoteBranches.values());
+            }
+        }
+        if (behind) {
+            errorExit("Please pull down remote changes before pushing.");
+        }
+    }
+
+    /** Serves a fetch by the repo at the other end of REMOTE: sends the
+     *  branches of this repo, and then the commit it wants and all that
+     *  commit refers to but what the commits it has refer to. */
+    public void uploadPack(Remote remote) {
+        remote.writeBranches(branchIds());
+        List<String> want = remote.readWant();
+        if (!want.isEmpty()) {
+            sendObjects(remote, want.get(0), want.subList(1, want.size()));
+        }
+    }
+
+    /** Serves a push by the repo at the other end of REMOTE: sends the
+     *  branches of this repo, and then receives the objects pushed and
+     *  moves the branch pushed to, unless it would lose commits. */
+    public void receivePack(Remote remote) {
+        remote.writeBranches(branchIds());
+        String[] update = remote.readUpdate();
+        if (update == null) {
+            return;
+        }
+        receiveObjects(remote);
+        File newHead = join(COMMIT_DIR, update[1]);
+        File oldHead = branches.get(update[0]);
+        int newPos = graphPosition(newHead);
+        if (oldHead != null && !graph().isAncestor(graphPosition(oldHead), newPos)) {
+            errorExit("Please pull down remote changes before pushing.");
+        }
+        putBranch(update[0], newHead);
+        saveRepo();
+    }
+
+    /** Returns the id of the head commit of each branch, by name. */
+    private Map<String, String> branchIds() {
+        Map<String, String> ids = new TreeMap<>();
+        for (Map.Entry<String, File> e : branches.entrySet()) {
+            ids.put(e.getKey(), e.getValue().getName());
+        }
+        return ids;
+    }
+
+    /** Returns the commits to tell a remote this repo has, so that it can
+     *  leave out all that they refer to: the head of each branch, and the
+     *  commits 1, 3, 7, 15, ... first parents before it, so that the last
+     *  commit shared with the remote is never more than twice as far
+     *  back as the closest one sent. */
+    private List<String> haves() {
+        CommitGraph g = graph();
+        Set<String> haves = new LinkedHashSet<>();
+        for (File branchHead : branches.values()) {
+            int p = graphPosition(branchHead);
+            for (int skip = 1; p != CommitGraph.NONE; skip *= 2) {
+                haves.add(g.id(p));
+                for (int i = 0; i < skip && p != CommitGraph.NONE; i += 1) {
+                    p = g.parent(p);
+                }
+            }
+        }
+        return new ArrayList<>(haves);
+    }
+
+    /** Sends to REMOTE the commit WANT and all it refers to, but the
+     *  commits HAVES, which the remote has, and all they refer to.  The
+     *  commits sent are found by walking back from WANT until a commit
+     *  reached by HAVES, and the trees and blobs by walking their trees,
+     *  skipping all the trees of the commits where that walk stopped. */
+    private void sendObjects(Remote remote, String want, Collection<String> haves) {
+        CommitGraph g = graph();
+        BitSet known = new BitSet(g.size());
+        Deque<Integer> fringe = new ArrayDeque<>();
+        for (String id : haves) {
+            fringe.push(g.position(id));
+        }
+        while (!fringe.isEmpty()) {
+            int p = fringe.pop();
+            if (p != CommitGraph.NONE && !known.get(p)) {
+                known.set(p);
+                fringe.push(g.parent(p));
+                fringe.push(g.mergeParent(p));
+            }
+        }
+
+        List<Integer> missing = new ArrayList<>();
+        Set<Integer> boundary = new HashSet<>();
+        BitSet visited = new BitSet(g.size());
+        fringe.push(graphPosition(join(COMMIT_DIR, want)));
+        while (!fringe.isEmpty()) {
+            int p = fringe.pop();
+            if (p == CommitGraph.NONE || visited.get(p)) {
+                continue;
+            }
+            visited.set(p);
+            if (known.get(p)) {
+                boundary.add(p);
+                continue;
+            }
+            missing.add(p);
+            fringe.push(g.parent(p));
+            fringe.push(g.mergeParent(p));
+        }
+        missing.sort(Comparator.comparingInt(g::generation));
+
+        Set<String> seen = new HashSet<>();
+        for (int p : boundary) {
+            walkObjects(Commit.loadCommit(join(COMMIT_DIR, g.id(p))), seen, id -> { }, id -> { });
+        }
+        for (int p : missing) {
+            walkObjects(Commit.loadCommit(join(COMMIT_DIR, g.id(p))), seen,
+                id -> remote.writeObject(Pack.TREE, id, ObjectStore.read(join(TREE_DIR, id))),
+                id -> remote.writeObject(Pack.BLOB, id, ObjectStore.read(join(OBJECT_DIR, id))));
+        }
+        for (int p : missing) {
+            String id = g.id(p);
+            remote.writeObject(Pack.COMMIT, id, ObjectStore.read(join(COMMIT_DIR, id)));
+        }
+        remote.writeEnd();
+        Trace.report("remote: sent %d commits, stopping at %d the remote has",
+                missing.size(), boundary.size());
+    }
+
+    /** Calls TREES and BLOBS with the ids of the trees and blobs of C that
+     *  are not in SEEN, as Tree.walk does. */
+    private static void walkObjects(Commit c, Set<String> seen, Consumer<String> trees,
+                                    Consumer<String> blobs) {
+        if (!c.isFlat()) {
+            Tree.walk(c.getTree(), seen, trees, blobs);
+            return;
+        }
+        for (File blob : c.getBlobs().values()) {
+            if (seen.add(blob.getName())) {
+                blobs.accept(blob.getName());
+            }
+        }
+    }
+
+    /** Receives the objects sent by REMOTE into the pack, and adds the
+     *  commits among them to this repo. */
+    private void receiveObjects(Remote remote) {
+        Pack.Writer writer = ObjectStore.pack().writer();
+        List<String> commitIds = remote.readObjects(writer);
+        writer.close();
+        for (String id : commitIds) {
+            File cFile = join(COMMIT_DIR, id);
+            if (!commits.containsKey(cFile)) {
+                recordCommit(cFile, Commit.loadCommit(cFile));
+            }
+        }
+    }
+
+    /** Saves the current state of this repo, by appending the changes
+     *  made by this command to the journal.  Once the journal is large
+     *  enough, writes a new snapshot of the whole repo instead and
+     *  empties the journal. */
     public void saveRepo() {
-        writeObject(REPO_FILE, this);
+        Journal journal = new Journal(JOURNAL_FILE);
+        long threshold = Math.max(MIN_CHECKPOINT_BYTES, REPO_FILE.length() / 2);
+        if (!REPO_FILE.exists() || journal.length() > threshold) {
+            checkpoint(journal);
+        } else if (changes != null) {
+            journal.append(changes);
+        }
+        changes = null;
+        if (statCache != null) {
+            statCache.save();
+        }
     }
 
-    /** Loads a repo instance saved with name "HEAD" in the .gitlet directory. */
+    /** Loads a repo instance saved with name "HEAD" in the .gitlet directory,
+     *  and replays the changes in the journal on top of it.  Replaying a
+     *  journal that was already in the snapshot leaves it unchanged, as
+     *  every change sets a value rather than modifying it.  A repo saved by
+     *  Java serialization is migrated to the binary encoding. */
     public static Repository loadRepo() {
-        return readObject(REPO_FILE, Repository.class);
+        byte[] snapshot = readContents(REPO_FILE);
+        boolean isLegacy = isJavaSerialized(snapshot);
+        Repository repo = isLegacy ? deserialize(snapshot, Repository.class) : decode(snapshot);
+        for (String[] change : new Journal(JOURNAL_FILE).read()) {
+            repo.replay(change);
+        }
+        repo.changes = null;
+        if (isLegacy) {
+            repo.migrate();
+        }
+        return repo;
+    }
+
+    /** Writes a new snapshot of this repo, replacing the old one at once,
+     *  and empties JOURNAL. */
+    private void checkpoint(Journal journal) {
+        File tmp = join(GITLET_DIR, "HEAD.tmp");
+        writeContents(tmp, encode());
+        try {
+            Files.move(tmp.toPath(), REPO_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("Cannot save repository: %s", excp.getMessage());
+        }
+        journal.clear();
+    }
+
+    /** Returns the binary encoding of this repo. */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            writeString(out, head);
+            writeVarint(out, branches.size());
+            for (Map.Entry<String, File> e : branches.entrySet()) {
+                writeString(out, e.getKey());
+                writeUid(out, idOf(e.getValue()));
+            }
+            writeVarint(out, commits.size());
+            for (Map.Entry<File, File> e : commits.entrySet()) {
+                writeUid(out, idOf(e.getKey()));
+                writeUid(out, idOf(e.getValue()));
+            }
+            writeVarint(out, stagingArea.size());
+            for (Map.Entry<String, File> e : stagingArea.entrySet()) {
+                writeString(out, e.getKey());
+                writeUid(out, idOf(e.getValue()));
+            }
+        } catch (IOException excp) {
+            throw error("Internal error encoding repository.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the repo whose binary encoding is BYTES. */
+    static Repository decode(byte[] bytes) {
+        Repository repo = new Repository();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw error("Corrupted repository: unknown format");
+            }
+            repo.head = readString(in);
+            for (int n = readVarint(in); n > 0; n -= 1) {
+                String name = readString(in);
+                repo.branches.put(name, fileOf(COMMIT_DIR, readUid(in)));
+            }
+            for (int n = readVarint(in); n > 0; n -= 1) {
+                File cFile = fileOf(COMMIT_DIR, readUid(in));
+                repo.commits.put(cFile, fileOf(COMMIT_DIR, readUid(in)));
+            }
+            for (int n = readVarint(in); n > 0; n -= 1) {
+                String fileName = readString(in);
+                repo.stagingArea.put(fileName, fileOf(OBJECT_DIR, readUid(in)));
+            }
+        } catch (IOException excp) {
+            throw error("Corrupted repository: %s", excp.getMessage());
+        }
+        return repo;
+    }
+
+    /** Moves a repo saved by Java serialization to the binary encoding.
+     *  Every commit is rewritten in the binary encoding after its parents,
+     *  which gives it a new id, and the branches and commits of this repo
+     *  are remapped to the new ids.  The commit-graph and the indexes
+     *  derived from it are dropped to be rebuilt on demand.  Old commits that were already
+     *  folded into the pack stay there, unreferenced. */
+    private void migrate() {
+        Map<String, File> renamed = new HashMap<>();
+        Deque<String> fringe = new ArrayDeque<>();
+        for (File cFile : commits.keySet()) {
+            fringe.push(cFile.getName());
+            while (!fringe.isEmpty()) {
+                String id = fringe.peek();
+                if (renamed.containsKey(id)) {
+                    fringe.pop();
+                    continue;
+                }
+                Commit c = Commit.loadCommit(join(COMMIT_DIR, id));
+                boolean ready = true;
+                for (File parent : new File[] {c.getParentFile(), c.getMergeParentFile()}) {
+                    if (parent != null && !renamed.containsKey(parent.getName())) {
+                        fringe.push(parent.getName());
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    fringe.pop();
+                    Commit migrated = new Commit(renamed.get(idOf(c.getParentFile())),
+                            renamed.get(idOf(c.getMergeParentFile())),
+                            c.getDate(), c.getCommitMsg(), c.getBlobs());
+                    renamed.put(id, migrated.saveCommit());
+                }
+            }
+        }
+
+        Map<File, File> oldCommits = commits;
+        commits = new HashMap<>();
+        for (Map.Entry<File, File> e : oldCommits.entrySet()) {
+            commits.put(renamed.get(e.getKey().getName()), renamed.get(idOf(e.getValue())));
+        }
+        branches.replaceAll((name, cFile) -> renamed.get(cFile.getName()));
+        stagingArea.replaceAll((name, blob) -> fileOf(OBJECT_DIR, idOf(blob)));
+
+        graph = null;
+        COMMIT_GRAPH_FILE.delete();
+        COMMIT_INDEX_FILE.delete();
+        new CommitMetadata(COMMIT_META_FILE, COMMIT_MESSAGES_FILE).clear();
+        new ChangedPathFilters(COMMIT_PATHS_FILE, COMMIT_PATH_FILTERS_FILE).clear();
+        new MessageIndex(MESSAGE_INDEX_DIR).delete();
+        checkpoint(new Journal(JOURNAL_FILE));
+        for (String id : renamed.keySet()) {
+            if (!renamed.get(id).getName().equals(id)) {
+                join(COMMIT_DIR, id).delete();
+            }
+        }
     }
 
     @Override
     public void dump() {
-        System.out.printf("headCommitFile: %s%nstagingAreaKeys: %s%n",
+        System.out.printf("headCommitFile: %s%nstagingAreaKeys: %s%n%s%n",
                 branches.get(head),
-                stagingArea.keySet());
+                stagingArea.keySet(),
+                Commit.cacheStats());
     }
 
     /** Helper methods. */
@@ -499,18 +1365,169 @@ public class Repository implements Serializable, Dumpable {
         return Commit.loadCommit(getHeadCommitFile());
     }
     /** Staged a file into the staging area,
-     *  i.e., add the filename and File object into the staging area
-     *  and saves a blob in OBJECT_DIR.
+     *  i.e., add the filename and the File of its blob into the staging area.
+     *  A null blob stages the file for removal.
      */
-    private void stageFile(String filePathName, File blob, byte[] content) {
+    private void stageFile(String filePathName, File blob) {
         stagingArea.put(filePathName, blob);
-        writeContents(blob, content);
-        saveRepo();
+        logChange("stage", filePathName, pathOf(blob));
     }
 
+    /** Removes a file from the staging area. */
     private void unStageFile(String filePathName, File blob) {
-        stagingArea.remove(filePathName);
-        saveRepo();
+        if (stagingArea.containsKey(filePathName)) {
+            stagingArea.remove(filePathName);
+            logChange("unstage", filePathName);
+        }
+    }
+
+    /** Removes all files from the staging area. */
+    private void clearStagingArea() {
+        stagingArea.clear();
+        logChange("clear-stage");
+    }
+
+    /** Points the branch NAME at COMMITFILE. */
+    private void putBranch(String name, File commitFile) {
+        branches.put(name, commitFile);
+        logChange("branch", name, pathOf(commitFile));
+    }
+
+    /** Deletes the branch NAME. */
+    private void removeBranchEntry(String name) {
+        branches.remove(name);
+        logChange("rm-branch", name);
+    }
+
+    /** Makes the branch NAME the current branch. */
+    private void setHead(String name) {
+        head = name;
+        logChange("head", name);
+    }
+
+    /** Records CHANGE to be appended to the journal by saveRepo. */
+    private void logChange(String... change) {
+        if (changes == null) {
+            changes = new ArrayList<>();
+        }
+        changes.add(change);
+    }
+
+    /** Applies a CHANGE read from the journal to this repo. */
+    private void replay(String[] change) {
+        switch (change[0]) {
+            case "stage":
+                stageFile(change[1], fileOf(OBJECT_DIR, change[2]));
+                break;
+            case "unstage":
+                unStageFile(change[1], null);
+                break;
+            case "clear-stage":
+                clearStagingArea();
+                break;
+            case "branch":
+                putBranch(change[1], fileOf(COMMIT_DIR, change[2]));
+                break;
+            case "rm-branch":
+                removeBranchEntry(change[1]);
+                break;
+            case "head":
+                setHead(change[1]);
+                break;
+            case "commit":
+                commits.put(fileOf(COMMIT_DIR, change[1]), fileOf(COMMIT_DIR, change[2]));
+                break;
+            default:
+                throw error("Corrupted journal: unknown change %s", change[0]);
+        }
+    }
+
+    /** Returns the id of the object F for the journal, or "" if F is null. */
+    private static String pathOf(File f) {
+        return f == null ? "" : f.getName();
+    }
+
+    /** Returns the File of the object in DIR named by ID, or null if ID is
+     *  null or "".  ID may also be the full path of the object, as written
+     *  to journals before the binary encoding. */
+    private static File fileOf(File dir, String id) {
+        return id == null || id.isEmpty() ? null : join(dir, new File(id).getName());
+    }
+
+    /** Returns the files named by the operands of add, in order and
+     *  without duplicates, each as its name in the working directory.
+     *  An operand naming the working directory stands
+     *  for the plain files in it, and an operand containing *, ? or [ is
+     *  matched as a glob against their names.  As the rest of the repo only
+     *  tracks the plain files of the working directory, files and
+     *  directories elsewhere cannot be named at all.
+     */
+    private List<String> expandPaths(String... operands) {
+        LinkedHashSet<String> fileNames = new LinkedHashSet<>();
+        for (String operand : operands) {
+            File f = new File(operand);
+            if (f.isFile()) {
+                Path path = CWD.toPath().resolve(operand).normalize();
+                if (!CWD.toPath().equals(path.getParent())) {
+                    errorExit("Only files in the working directory can be added.");
+                }
+                fileNames.add(path.getFileName().toString());
+                continue;
+            }
+            boolean isGlob = operand.matches(".*[*?\\[].*");
+            if (!isGlob && !f.isDirectory()) {
+                errorExit("File does not exist.");
+            }
+            File dir = isGlob ? f.getParentFile() : f;
+            if (dir != null && !dir.toPath().toAbsolutePath().normalize().equals(CWD.toPath())) {
+                errorExit("Only files in the working directory can be added.");
+            }
+            PathMatcher matcher = FileSystems.getDefault()
+                    .getPathMatcher("glob:" + (isGlob ? f.getName() : "*"));
+            boolean found = false;
+            for (String name : plainFilenamesIn(CWD)) {
+                if (matcher.matches(Paths.get(name))) {
+                    fileNames.add(name);
+                    found = true;
+                }
+            }
+            if (isGlob && !found) {
+                errorExit("File does not exist.");
+            }
+        }
+        return new ArrayList<>(fileNames);
+    }
+
+    /** Stores the working files FILENAMES[i] for each i in CHANGED as blobs,
+     *  on a pool of worker threads, and sets IDS[i] to their blob ids.
+     *  The stat-cache, which is not thread-safe, is updated afterwards.
+     */
+    private void writeBlobs(List<String> fileNames, List<Integer> changed, String[] ids) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        int workers = Math.min(changed.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i : changed) {
+                File inputFile = join(CWD, fileNames.get(i));
+                results.add(pool.submit(() -> ObjectStore.writeBlob(inputFile)));
+            }
+            for (int k = 0; k < changed.size(); k += 1) {
+                int i = changed.get(k);
+                ids[i] = results.get(k).get();
+                statCache().record(fileNames.get(i), ids[i]);
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            Throwable cause = excp.getCause() == null ? excp : excp.getCause();
+            if (cause instanceof CommandExit) {
+                throw (CommandExit) cause;
+            }
+            throw error("Cannot add files: %s", cause.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
     }
 
     /** Returns current staged files. */
@@ -561,18 +1578,197 @@ public class Repository implements Serializable, Dumpable {
         return outFiles;
     }
 
-    /** Returns true if a commitId exists.
-     * False, if it does not exist.
+    /** Returns the files changed in the working directory but not staged,
+     *  each followed by " (modified)" or " (deleted)", in sorted order.
+     *  A file counts if its working contents differ from the version staged
+     *  for addition or, if it is not staged, from the version tracked in the
+     *  head commit.  Files staged for removal do not count.
      */
-    private String searchCommitId(String inputCommitId) {
-        List<String> commitIDs = plainFilenamesIn(COMMIT_DIR);
-        for (String commitId : commitIDs) {
-            if (commitId.startsWith(inputCommitId)) {
-                return commitId;
+    private List<String> getModifiedFiles() {
+        TreeMap<String, File> expected = new TreeMap<>(getHeadCommit().getBlobs());
+        expected.putAll(stagingArea);
+        List<String> modifiedFiles = new ArrayList<>();
+        for (Map.Entry<String, File> e : expected.entrySet()) {
+            if (e.getValue() == null) {
+                continue;
+            }
+            String workingId = statCache().blobId(e.getKey());
+            if (workingId == null) {
+                modifiedFiles.add(e.getKey() + " (deleted)");
+            } else if (!workingId.equals(e.getValue().getName())) {
+                modifiedFiles.add(e.getKey() + " (modified)");
+            }
+        }
+        return modifiedFiles;
+    }
 
+    /** Overwrites the working file FILENAME with the contents of BLOB, and
+     *  returns the number of bytes copied, as the setting checkout.mode may
+     *  ask for the file to be linked or cloned instead. */
+    private long writeWorkingFile(String fileName, File blob) {
+        return writeWorkingFiles(new TreeMap<>(Map.of(fileName, blob)));
+    }
+
+    /** Overwrites the working files named by the keys of FILES with the
+     *  contents of their blobs, and returns the number of bytes copied.
+     *  The files are made as the setting checkout.mode asks, as new files
+     *  in the .gitlet directory, on a pool of checkout.workers threads
+     *  (by default one; 0 asks for one per processor).
+     *  Only once all of them are made are they renamed over the working
+     *  files, which are never written into, as they may be hard links to
+     *  blobs; each working file replaced is first renamed aside, and
+     *  removed only once all are in place.  So if any file fails, even
+     *  while renaming, the working directory is left as it was and the
+     *  failure of the first failed file in name order is reported.
+     */
+    private long writeWorkingFiles(SortedMap<String, File> files) {
+        if (files.isEmpty()) {
+            return 0;
+        }
+        Config config = new Config(CONFIG_FILE);
+        String mode = checkoutMode(config);
+        int workers = checkoutWorkers(config);
+        if (workers == 0) {
+            workers = Runtime.getRuntime().availableProcessors();
+        }
+        workers = Math.min(workers, files.size());
+
+        List<String> fileNames = new ArrayList<>(files.keySet());
+        List<Path> temps = new ArrayList<>();
+        List<Future<Long>> results = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        long copied = 0;
+        String failure = null;
+        CommandExit exit = null;
+        try {
+            for (String fileName : fileNames) {
+                File blob = files.get(fileName);
+                Path tmp = ObjectStore.checkoutTempPath();
+                temps.add(tmp);
+                results.add(pool.submit(() -> ObjectStore.materialize(blob, tmp, mode)));
+            }
+            for (int i = 0; i < results.size(); i += 1) {
+                try {
+                    copied += results.get(i).get();
+                } catch (ExecutionException excp) {
+                    if (excp.getCause() instanceof CommandExit) {
+                        exit = (CommandExit) excp.getCause();
+                    } else if (failure == null) {
+                        failure = fileNames.get(i) + ": " + reason(excp.getCause());
+                    }
+                }
             }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            failure = "interrupted";
+        } finally {
+            pool.shutdownNow();
+        }
+
+        /* Renames the new files into place, moving aside the files they
+         * replace, so that a failed rename can be undone. */
+        List<Path> backups = new ArrayList<>();
+        int moved = 0;
+        while (failure == null && exit == null && moved < fileNames.size()) {
+            String fileName = fileNames.get(moved);
+            Path target = join(CWD, fileName).toPath();
+            try {
+                Path backup = null;
+                if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                    backup = ObjectStore.checkoutTempPath();
+                    Files.move(target, backup, StandardCopyOption.ATOMIC_MOVE);
+                }
+                backups.add(backup);
+                Files.move(temps.get(moved), target, StandardCopyOption.ATOMIC_MOVE);
+                moved += 1;
+            } catch (IOException excp) {
+                failure = fileName + ": " + reason(excp);
+            }
+        }
+
+        if (failure != null || exit != null) {
+            for (int i = backups.size() - 1; i >= 0; i -= 1) {
+                Path target = join(CWD, fileNames.get(i)).toPath();
+                try {
+                    if (i < moved) {
+                        Files.delete(target);
+                    }
+                    if (backups.get(i) != null) {
+                        Files.move(backups.get(i), target, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                } catch (IOException excp) {
+                    System.err.printf("Cannot restore %s: %s%n", fileNames.get(i), reason(excp));
+                }
+            }
+            for (Path tmp : temps) {
+                tmp.toFile().delete();
+            }
+            if (exit != null) {
+                throw exit;
+            }
+            errorExit("Cannot check out %s", failure);
+        }
+        for (int i = 0; i < fileNames.size(); i += 1) {
+            if (backups.get(i) != null) {
+                backups.get(i).toFile().delete();
+            }
+            statCache().record(fileNames.get(i), files.get(fileNames.get(i)).getName());
+        }
+        return copied;
+    }
+
+    /** Returns a description of why EXCP was thrown. */
+    private static String reason(Throwable excp) {
+        return excp.getMessage() != null ? excp.getMessage() : excp.toString();
+    }
+
+    /** Returns the checkout mode set in CONFIG. */
+    private static String checkoutMode(Config config) {
+        return config.getChoice("checkout.mode",
+                ObjectStore.COPY, ObjectStore.LINK, ObjectStore.CLONE);
+    }
+
+    /** Returns the number of checkout workers set in CONFIG, where 0
+     *  means one per processor. */
+    private static int checkoutWorkers(Config config) {
+        return config.getInt("checkout.workers", 1, 0, MAX_CHECKOUT_WORKERS);
+    }
+
+    /** Ends the command, saying why, if the setting KEY in CONFIG does not
+     *  have a value its user accepts. */
+    private static void checkSetting(Config config, String key) {
+        switch (key) {
+            case "core.compression":
+                ObjectStore.compressionLevel(config);
+                break;
+            case "checkout.mode":
+                checkoutMode(config);
+                break;
+            case "checkout.workers":
+                checkoutWorkers(config);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Returns the stat-cache of the working directory. */
+    private StatCache statCache() {
+        if (statCache == null) {
+            statCache = new StatCache(STAT_CACHE_FILE);
+        }
+        return statCache;
+    }
+
+    /** Returns the full id of the commit whose id starts with inputCommitId,
+     * or null if there is no such commit.
+     */
+    private String searchCommitId(String inputCommitId) {
+        List<String> commitIDs = graph().idsWithPrefix(inputCommitId, 2);
+        if (commitIDs.size() > 1) {
+            errorExit("Ambiguous commit id prefix.");
         }
-        return null;
+        return commitIDs.isEmpty() ? null : commitIDs.get(0);
     }
 
     /** Makes sure no untracked file is overwritten.
@@ -593,96 +1789,233 @@ public class Repository implements Serializable, Dumpable {
         }
     }
 
-    /** Returns the latest split commitFile for two branches. */
-    private File findLatestSplitCommit(File headCommitFileA, File headCommitFileB) {
-        Set<File> pSetA = findParentSet(headCommitFileA);
-        Set<File> pSetB = findParentSet(headCommitFileB);
-
-        for (File f : pSetB) {
-            if (pSetA.contains(f)) {
-                return f;
-            }
+    /** Adds the new commit C, saved as CFILE, to the commits of this repo
+     *  and to its commit-graph. */
+    private void recordCommit(File cFile, Commit c) {
+        commits.put(cFile, c.getParentFile());
+        logChange("commit", pathOf(cFile), pathOf(c.getParentFile()));
+        int p = graph().append(cFile.getName(), idOf(c.getParentFile()),
+                idOf(c.getMergeParentFile()));
+        CommitMetadata meta = metadata(p);
+        if (meta.size() == p) {
+            meta.append(c.getDate().getTime(), c.getCommitMsg());
+        }
+        ChangedPathFilters filters = pathFilters(p);
+        if (filters.size() == p) {
+            filters.append(changedPaths(c));
         }
-        return null;
+        messageIndex().add(cFile.getName(), c.getCommitMsg());
     }
 
-    /** Returns a set of parents for a given commit. */
-    private Set<File> findParentSet(File commitFile) {
-        Set<File> parentSet = new LinkedHashSet<>();
-        Queue<Commit> fringe = new ArrayDeque<>();
-
-        Commit curCommit = Commit.loadCommit(commitFile);
-        Commit parentCommit;
-        Commit mergeParentCommit;
-        File parentCommitFile;
-        File mergeParentCommitFile;
-
-        /* Starts with the given commit. */
-        fringe.add(curCommit);
-        parentSet.add(commitFile);
+    /** Returns the id of the commit or blob F, or null if it is null. */
+    private static String idOf(File f) {
+        return f == null ? null : f.getName();
+    }
 
-        while (!fringe.isEmpty()) {
-            curCommit = fringe.remove();
-            parentCommitFile = curCommit.getParentFile();
-            mergeParentCommitFile = curCommit.getMergeParentFile();
-            parentCommit = Commit.loadCommit(parentCommitFile);
-            mergeParentCommit = Commit.loadCommit(mergeParentCommitFile);
+    /** Returns the commit-graph of this repo, building it from all the
+     *  commits of this repo if it was never written. */
+    private CommitGraph graph() {
+        if (graph == null) {
+            graph = new CommitGraph(COMMIT_GRAPH_FILE, COMMIT_INDEX_FILE);
+            if (!graph.exists() && !commits.isEmpty()) {
+                rebuildGraph();
+            }
+        }
+        return graph;
+    }
 
+    /** Returns the metadata cache of this repo, after filling it in from
+     *  the commits themselves up to position SIZE of the commit-graph. */
+    private CommitMetadata metadata(int size) {
+        if (metadata == null) {
+            metadata = new CommitMetadata(COMMIT_META_FILE, COMMIT_MESSAGES_FILE);
+        }
+        if (metadata.size() == 0 || metadata.size() > graph().size()) {
+            metadata.clear();
+        }
+        for (int p = metadata.size(); p < size; p += 1) {
+            Commit c = Commit.loadCommit(join(COMMIT_DIR, graph.id(p)));
+            metadata.append(c.getDate().getTime(), c.getCommitMsg());
+        }
+        return metadata;
+    }
 
+    /** Returns the changed-path filters of this repo, after filling them
+     *  in from the commits themselves up to position SIZE of the commit-graph. */
+    private ChangedPathFilters pathFilters(int size) {
+        if (pathFilters == null) {
+            pathFilters = new ChangedPathFilters(COMMIT_PATHS_FILE, COMMIT_PATH_FILTERS_FILE);
+        }
+        if (pathFilters.size() > graph().size()) {
+            pathFilters.clear();
+        }
+        for (int p = pathFilters.size(); p < size; p += 1) {
+            pathFilters.append(changedPaths(Commit.loadCommit(join(COMMIT_DIR, graph.id(p)))));
+        }
+        return pathFilters;
+    }
 
-            if (parentCommit != null && !parentSet.contains(parentCommitFile)) {
-                fringe.add(parentCommit);
-                parentSet.add(parentCommitFile);
+    /** Returns the paths whose blob in commit C differs from its first
+     *  parent, or all the paths of C if it has no parent.  The trees of
+     *  the two are compared where both have one, which skips every
+     *  directory they share. */
+    private static List<String> changedPaths(Commit c) {
+        Commit parent = Commit.loadCommit(c.getParentFile());
+        if (!c.isFlat() && (parent == null || !parent.isFlat())) {
+            List<String> changed = new ArrayList<>();
+            Tree.diff(parent == null ? null : parent.getTree(), c.getTree(), changed);
+            return changed;
+        }
+        TreeMap<String, File> blobs = c.getBlobs();
+        TreeMap<String, File> parentBlobs = parent == null ? new TreeMap<>() : parent.getBlobs();
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, File> e : blobs.entrySet()) {
+            if (!e.getValue().equals(parentBlobs.get(e.getKey()))) {
+                changed.add(e.getKey());
             }
+        }
+        for (String name : parentBlobs.keySet()) {
+            if (!blobs.containsKey(name)) {
+                changed.add(name);
+            }
+        }
+        return changed;
+    }
 
-            if (mergeParentCommit != null && !parentSet.contains(mergeParentCommitFile)) {
-                fringe.add(mergeParentCommit);
-                parentSet.add(mergeParentCommitFile);
+    /** Returns the message index of this repo, building it from all the
+     *  commits of this repo, oldest first, if it was never written. */
+    private MessageIndex messageIndex() {
+        if (messageIndex == null) {
+            messageIndex = new MessageIndex(MESSAGE_INDEX_DIR);
+            if (!messageIndex.exists()) {
+                CommitGraph g = graph();
+                messageIndex.clear();
+                for (int p = 0; p < g.size(); p += 1) {
+                    String id = g.id(p);
+                    messageIndex.add(id, Commit.loadCommit(join(COMMIT_DIR, id)).getCommitMsg());
+                }
             }
         }
+        return messageIndex;
+    }
 
-        return parentSet;
+    /** Returns the position of COMMITFILE in the commit-graph, rebuilding
+     *  the graph if it misses that commit. */
+    private int graphPosition(File commitFile) {
+        int p = graph().position(commitFile.getName());
+        if (p == CommitGraph.NONE) {
+            rebuildGraph();
+            p = graph.position(commitFile.getName());
+        }
+        return p;
     }
 
-    /** Combines two file contents when merging in conflict. */
-    private void mergeConflict(String filePathName, File curFile, File givenFile) {
-        String curContent = "";
-        String givenContent = "";
-        if (curFile != null) {
-            curContent = readContentsAsString(curFile);
+    /** Rewrites the commit-graph from all the commits of this repo,
+     *  appending every commit after its parents. */
+    private void rebuildGraph() {
+        graph.clear();
+        new CommitMetadata(COMMIT_META_FILE, COMMIT_MESSAGES_FILE).clear();
+        metadata = null;
+        new ChangedPathFilters(COMMIT_PATHS_FILE, COMMIT_PATH_FILTERS_FILE).clear();
+        pathFilters = null;
+        Deque<File> fringe = new ArrayDeque<>();
+        for (File cFile : commits.keySet()) {
+            fringe.push(cFile);
+            while (!fringe.isEmpty()) {
+                File f = fringe.peek();
+                if (graph.position(f.getName()) != CommitGraph.NONE) {
+                    fringe.pop();
+                    continue;
+                }
+                Commit c = Commit.loadCommit(f);
+                boolean ready = true;
+                for (File parent : new File[] {c.getParentFile(), c.getMergeParentFile()}) {
+                    if (parent != null && graph.position(parent.getName()) == CommitGraph.NONE) {
+                        fringe.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    fringe.pop();
+                    graph.append(f.getName(), idOf(c.getParentFile()),
+                            idOf(c.getMergeParentFile()));
+                }
+            }
         }
+    }
 
-        if (givenFile != null) {
-            givenContent = readContentsAsString(givenFile);
+    /** Returns a map from each committed blob id to the previous version
+     *  of the same file, which makes a good base for a delta. */
+    private Map<String, String> deltaBases() {
+        List<Commit> history = new ArrayList<>();
+        for (File cFile : commits.keySet()) {
+            history.add(Commit.loadCommit(cFile));
+        }
+        history.sort(Comparator.comparing(Commit::getDate));
+
+        Map<String, String> lastVersions = new HashMap<>();
+        Map<String, String> bases = new HashMap<>();
+        for (Commit c : history) {
+            for (Map.Entry<String, File> e : c.getBlobs().entrySet()) {
+                String blobId = e.getValue().getName();
+                String prev = lastVersions.put(e.getKey(), blobId);
+                if (prev != null && !prev.equals(blobId)) {
+                    bases.putIfAbsent(blobId, prev);
+                }
+            }
         }
+        return bases;
+    }
 
-        String mergedContent = "<<<<<<< HEAD\n"
-                + curContent
-                + "=======\n"
-                + givenContent
-                + ">>>>>>>\n";
+    /** Merges the changes made since the split point to the file
+     *  FILEPATHNAME in the current branch, whose version is CURFILE, and
+     *  in the given branch, whose version is GIVENFILE, with its version
+     *  SPLITFILE at the split point.  Any of them is null if the file is
+     *  absent there.  Changes to separate lines of a text file are merged
+     *  line by line; otherwise, and where both branches changed the same
+     *  lines differently, the two versions are written between conflict
+     *  markers.  Returns true if there was a conflict. */
+    private boolean mergeFile(String filePathName, File splitFile, File curFile, File givenFile) {
+        byte[] base = splitFile == null ? new byte[0] : ObjectStore.read(splitFile);
+        byte[] cur = curFile == null ? new byte[0] : ObjectStore.read(curFile);
+        byte[] given = givenFile == null ? new byte[0] : ObjectStore.read(givenFile);
+
+        byte[] mergedContent;
+        boolean conflict;
+        if (curFile == null || givenFile == null
+                || Diff.isBinary(base) || Diff.isBinary(cur) || Diff.isBinary(given)) {
+            mergedContent = ThreeWayMerge.conflict(cur, given);
+            conflict = true;
+        } else {
+            ThreeWayMerge m = new ThreeWayMerge(base, cur, given);
+            Trace.report("merge: %s: %d changes merged, %d in conflict",
+                    filePathName, m.clean(), m.conflicts());
+            mergedContent = m.result();
+            conflict = m.conflicts() > 0;
+        }
 
-        writeContents(join(CWD, filePathName), mergedContent);
+        /* Replaces rather than overwrites the file, which may be linked to a blob. */
+        File merged = join(CWD, filePathName);
+        merged.delete();
+        writeContents(merged, mergedContent);
+        return conflict;
     }
 
     /** Commit when merging. */
     public void mergeCommit(String commitMsg, File mergeParentFile) {
 
-        /* Updates the head commit with staged files. */
-        headCommitBlobs = getHeadCommit().getBlobs();
-        headCommitBlobs.putAll(stagingArea);
-
-        /* Removes keys with null values as untracking files. */
-        headCommitBlobs.values().remove(null);
+        /* Updates the tree of the head commit with staged files, where a
+           null blob untracks a file. */
+        String tree = Tree.update(getHeadCommit().getTree(), stagingArea);
 
         /* Creates a new commit. */
-        Commit c = new Commit(getHeadCommitFile(), mergeParentFile, commitMsg, headCommitBlobs);
+        Commit c = new Commit(getHeadCommitFile(), mergeParentFile, commitMsg, tree);
         File cFile = c.saveCommit();
-        commits.put(cFile, c.getParentFile());
-        branches.put(head, cFile);
+        recordCommit(cFile, c);
+        putBranch(head, cFile);
 
         /* Clears the staging area. */
-        stagingArea.clear();
+        clearStagingArea();
 
         saveRepo();
     }
@@ -0,0 +1,206 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** The gitlet daemon: a long-lived process that runs the commands sent
+ *  to it by Client, so that they pay neither the start-up of a JVM nor
+ *  the loading of the repo.  The repo stays loaded between commands, with
+ *  its commit-graph, caches and indexes.  It is only loaded again if its
+ *  snapshot, journal or stat-cache were changed by another process, or
+ *  if a command failed part way.
+ *
+ *  The daemon listens on the Unix domain socket .gitlet/daemon, which
+ *  only its owner may connect to.  A request is the arguments of the
+ *  command; the reply is frames of standard output and error, ending
+ *  with the exit status.  Commands run one at a time, in the order they
+ *  arrive.
+ *  @author Min-Hsiu Hsu
+ */
+class Server {
+    /** Request layout: argCount { arg }*, as Utils.writeString and
+     *  writeVarint.  Reply layout: { (OUT | ERR) length byte* }* END status. */
+    static final byte END = 0;
+    static final byte OUT = 1;
+    static final byte ERR = 2;
+    /** The repo, or null if it must be loaded again. */
+    private Repository repo;
+    /** The size and modification time of each of the files of the repo
+     *  state, as they were after the last command. */
+    private long[] stamp;
+    /** True once a client has asked the daemon to stop. */
+    private boolean stopped;
+
+    /** A daemon for REPO. */
+    private Server(Repository repo) {
+        this.repo = repo;
+        stamp = stamp();
+    }
+
+    /** Serves REPO until a client asks the daemon to stop. */
+    static void serve(Repository repo) {
+        if (!Repository.GITLET_DIR.exists()) {
+            errorExit("Not in an initialized Gitlet directory.");
+        }
+        if (Client.forward(Repository.DAEMON_FILE, "daemon", "ping") != null) {
+            errorExit("A gitlet daemon is already running.");
+        }
+        /* No daemon answered, so any socket file is left from one that died. */
+        Repository.DAEMON_FILE.delete();
+        try (ServerSocketChannel socket = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            socket.bind(UnixDomainSocketAddress.of(Repository.DAEMON_FILE.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(Repository.DAEMON_FILE::delete));
+            try {
+                Files.setPosixFilePermissions(Repository.DAEMON_FILE.toPath(),
+                        PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException excp) {
+                /* The file system cannot restrict the socket to its owner. */
+            }
+            Server server = new Server(repo);
+            message("Serving %s on %s.", Repository.CWD, Repository.DAEMON_FILE);
+            try {
+                while (!server.stopped) {
+                    try (SocketChannel client = socket.accept()) {
+                        server.handle(client);
+                    } catch (IOException excp) {
+                        /* The client went away; serve the next one. */
+                    }
+                }
+            } finally {
+                Repository.DAEMON_FILE.delete();
+            }
+        } catch (IOException excp) {
+            throw error("Cannot start the daemon: %s", excp.getMessage());
+        }
+    }
+
+    /** Reads a request from CLIENT, runs it, and sends back its output. */
+    private void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(client)));
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(client), BUFFER_SIZE));
+        String[] args = new String[readVarint(in)];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = readString(in);
+        }
+
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream commandOut = new PrintStream(new BufferedOutputStream(
+                new Frames(out, OUT), BUFFER_SIZE), false);
+        PrintStream commandErr = new PrintStream(new Frames(out, ERR), true);
+        int status = 0;
+        System.setOut(commandOut);
+        System.setErr(commandErr);
+        try {
+            run(args);
+        } catch (CommandExit excp) {
+            /* The command may have changed the repo before it ended. */
+            repo = null;
+        } catch (RuntimeException excp) {
+            excp.printStackTrace();
+            status = 1;
+            repo = null;
+        } finally {
+            commandOut.flush();
+            commandErr.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+            stamp = stamp();
+        }
+        out.writeByte(END);
+        writeVarint(out, status);
+        out.flush();
+    }
+
+    /** Runs the command ARGS on the repo, loading it again if needed. */
+    private void run(String[] args) {
+        if (args.length == 0) {
+            errorExit("Must have at least one argument");
+        }
+        if (args[0].equals("daemon")) {
+            if (args.length == 2 && args[1].equals("stop")) {
+                stopped = true;
+                message("Stopped the gitlet daemon.");
+            } else if (args.length != 2 || !args[1].equals("ping")) {
+                errorExit("A gitlet daemon is already running.");
+            }
+            return;
+        }
+        ObjectStore.reset();
+        if (repo == null || !Arrays.equals(stamp, stamp())) {
+            repo = Main.loadRepo();
+        }
+        Main.run(repo, args);
+    }
+
+    /** Returns the size and modification time of each of the files that
+     *  hold the state of the repo, or -1 for a file that does not exist. */
+    private static long[] stamp() {
+        File[] files = {Repository.REPO_FILE, Repository.JOURNAL_FILE,
+            Repository.STAT_CACHE_FILE};
+        long[] stamp = new long[2 * files.length];
+        for (int i = 0; i < files.length; i += 1) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(files[i].toPath(),
+                        BasicFileAttributes.class);
+                stamp[2 * i] = attrs.size();
+                stamp[2 * i + 1] = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            } catch (IOException excp) {
+                stamp[2 * i] = -1;
+            }
+        }
+        return stamp;
+    }
+
+    /** A stream sending what is written to it as frames of type TYPE. */
+    private static class Frames extends OutputStream {
+        /** The stream of the reply. */
+        private final DataOutputStream out;
+        /** The frame type, OUT or ERR. */
+        private final byte type;
+
+        Frames(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                out.writeByte(type);
+                writeVarint(out, len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
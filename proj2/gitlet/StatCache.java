@@ -0,0 +1,174 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** The stat-cache of the working directory, like the index of git.
+ *  For each working file whose contents have been hashed it records the
+ *  size, modification time and inode the file had at that moment, next
+ *  to the resulting blob id.  A file whose stat data is unchanged is not
+ *  read again.  An entry whose modification time is not older than the
+ *  cache file itself is "racy": the file may have changed again within
+ *  the same clock tick, so it is hashed again anyway.
+ *  @author Min-Hsiu Hsu
+ */
+class StatCache {
+    /** File layout: "GLSC" version count { path size mtime inode blobId }* */
+    private static final int MAGIC = 0x474c5343;
+    private static final int VERSION = 1;
+
+    /** The stat data and blob id of one working file. */
+    private static class Entry {
+        private long size;
+        private long mtime;
+        private String inode;
+        private String blobId;
+    }
+
+    /** The file storing this cache. */
+    private final File file;
+    /** Working file names to their entries. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    /** Entries modified at or after this time (ms) are racy. */
+    private long savedAt;
+    /** True if this cache has changed since it was loaded. */
+    private boolean dirty;
+
+    /** Loads the stat-cache stored in FILE, or an empty one if FILE does
+     *  not exist or was written by another version. */
+    StatCache(File file) {
+        this.file = file;
+        savedAt = file.lastModified();
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String name = in.readUTF();
+                Entry e = new Entry();
+                e.size = in.readLong();
+                e.mtime = in.readLong();
+                e.inode = in.readUTF();
+                e.blobId = in.readUTF();
+                entries.put(name, e);
+            }
+        } catch (IOException excp) {
+            entries.clear();
+        }
+    }
+
+    /** Returns the blob id of the contents of the working file NAME, or
+     *  null if there is no such file.  The file is only hashed if its stat
+     *  data changed since it was last hashed. */
+    String blobId(String name) {
+        String id = cachedBlobId(name);
+        File f = join(Repository.CWD, name);
+        if (id == null && f.isFile()) {
+            id = sha1(f);
+            record(name, id);
+        }
+        return id;
+    }
+
+    /** Returns the blob id of the working file NAME if its stat data are
+     *  unchanged since it was hashed, or null otherwise. */
+    String cachedBlobId(String name) {
+        BasicFileAttributes attrs = stat(join(Repository.CWD, name));
+        if (attrs == null) {
+            if (entries.remove(name) != null) {
+                dirty = true;
+            }
+            return null;
+        }
+        Entry e = entries.get(name);
+        if (e != null && matches(e, attrs) && e.mtime < savedAt) {
+            return e.blobId;
+        }
+        return null;
+    }
+
+    /** Records that the working file NAME has just been written with the
+     *  contents of the blob BLOBID. */
+    void record(String name, String blobId) {
+        BasicFileAttributes attrs = stat(join(Repository.CWD, name));
+        if (attrs != null) {
+            put(name, attrs, blobId);
+        }
+    }
+
+    /** Writes this cache back to its file if it changed. */
+    void save() {
+        if (!dirty) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (String name : entries.keySet()) {
+                Entry e = entries.get(name);
+                out.writeUTF(name);
+                out.writeLong(e.size);
+                out.writeLong(e.mtime);
+                out.writeUTF(e.inode);
+                out.writeUTF(e.blobId);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write stat-cache: %s", excp.getMessage());
+        }
+        savedAt = file.lastModified();
+        dirty = false;
+    }
+
+    /** Records the stat data ATTRS and blob id BLOBID of the working file NAME. */
+    private void put(String name, BasicFileAttributes attrs, String blobId) {
+        Entry e = new Entry();
+        e.size = attrs.size();
+        e.mtime = attrs.lastModifiedTime().toMillis();
+        e.inode = inode(attrs);
+        e.blobId = blobId;
+        entries.put(name, e);
+        dirty = true;
+    }
+
+    /** Returns true if the stat data of E are those in ATTRS. */
+    private static boolean matches(Entry e, BasicFileAttributes attrs) {
+        return e.size == attrs.size()
+                && e.mtime == attrs.lastModifiedTime().toMillis()
+                && e.inode.equals(inode(attrs));
+    }
+
+    /** Returns the identity of the inode described by ATTRS, or "" if the
+     *  file system does not provide one. */
+    private static String inode(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? "" : key.toString();
+    }
+
+    /** Returns the attributes of the plain file F, or null if it is not one. */
+    private static BasicFileAttributes stat(File f) {
+        try {
+            BasicFileAttributes attrs =
+                    Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+            return attrs.isRegularFile() ? attrs : null;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/** A diff3-style merge of two versions of a file that both descend from
+ *  a common base.  The changes from the base to each version are found
+ *  by Diff, and walked together in the order of the lines of the base.
+ *  Changes of one version that neither overlap nor touch a change of the
+ *  other are applied as they are; a run of changes of both versions
+ *  that overlap or touch is applied if both versions made the same
+ *  change there, and is a conflict otherwise, written between conflict
+ *  markers with the lines of the current version first.
+ *  @author Min-Hsiu Hsu
+ */
+class ThreeWayMerge {
+    /** The conflict markers, around and between the two versions. */
+    static final byte[] OURS_MARKER = "<<<<<<< HEAD\n".getBytes();
+    static final byte[] SEPARATOR = "=======\n".getBytes();
+    static final byte[] THEIRS_MARKER = ">>>>>>>\n".getBytes();
+
+    /** The merged contents. */
+    private final ByteArrayOutputStream merged = new ByteArrayOutputStream();
+    /** The number of runs of changes merged cleanly and in conflict. */
+    private int clean, conflicts;
+
+    /** Merges the changes from the contents BASE to OURS with those from
+     *  BASE to THEIRS. */
+    ThreeWayMerge(byte[] base, byte[] ours, byte[] theirs) {
+        int[] baseLines = Diff.lineOffsets(base);
+        int[] ourLines = Diff.lineOffsets(ours);
+        int[] theirLines = Diff.lineOffsets(theirs);
+        List<Diff.Change> ourChanges = new Diff(base, ours).changes();
+        List<Diff.Change> theirChanges = new Diff(base, theirs).changes();
+
+        /* The next change of each version, and the first base line not yet written. */
+        int i = 0, j = 0, done = 0;
+        /* The number of lines each version has gained over the base so far. */
+        int ourShift = 0, theirShift = 0;
+        while (i < ourChanges.size() || j < theirChanges.size()) {
+            /* Starts a run at the earlier change, and extends it while a
+             * change of either version overlaps or touches it. */
+            int lo, hi;
+            if (j == theirChanges.size() || (i < ourChanges.size()
+                    && ourChanges.get(i).aStart <= theirChanges.get(j).aStart)) {
+                lo = ourChanges.get(i).aStart;
+                hi = ourChanges.get(i).aEnd;
+            } else {
+                lo = theirChanges.get(j).aStart;
+                hi = theirChanges.get(j).aEnd;
+            }
+            int iEnd = i, jEnd = j;
+            while (true) {
+                if (iEnd < ourChanges.size() && ourChanges.get(iEnd).aStart <= hi) {
+                    hi = Math.max(hi, ourChanges.get(iEnd).aEnd);
+                    iEnd += 1;
+                } else if (jEnd < theirChanges.size() && theirChanges.get(jEnd).aStart <= hi) {
+                    hi = Math.max(hi, theirChanges.get(jEnd).aEnd);
+                    jEnd += 1;
+                } else {
+                    break;
+                }
+            }
+
+            write(base, baseLines, done, lo);
+            int ourLo = lo + ourShift, theirLo = lo + theirShift;
+            ourShift += shift(ourChanges, i, iEnd);
+            theirShift += shift(theirChanges, j, jEnd);
+            int ourHi = hi + ourShift, theirHi = hi + theirShift;
+            if (jEnd == j) {
+                write(ours, ourLines, ourLo, ourHi);
+                clean += 1;
+            } else if (iEnd == i) {
+                write(theirs, theirLines, theirLo, theirHi);
+                clean += 1;
+            } else if (Arrays.equals(ours, ourLines[ourLo], ourLines[ourHi],
+                    theirs, theirLines[theirLo], theirLines[theirHi])) {
+                write(ours, ourLines, ourLo, ourHi);
+                clean += 1;
+            } else {
+                merged.writeBytes(OURS_MARKER);
+                write(ours, ourLines, ourLo, ourHi);
+                merged.writeBytes(SEPARATOR);
+                write(theirs, theirLines, theirLo, theirHi);
+                merged.writeBytes(THEIRS_MARKER);
+                conflicts += 1;
+            }
+            done = hi;
+            i = iEnd;
+            j = jEnd;
+        }
+        write(base, baseLines, done, baseLines.length - 1);
+    }
+
+    /** Returns the contents of a whole-file conflict between OURS and THEIRS. */
+    static byte[] conflict(byte[] ours, byte[] theirs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(OURS_MARKER);
+        out.writeBytes(ours);
+        out.writeBytes(SEPARATOR);
+        out.writeBytes(theirs);
+        out.writeBytes(THEIRS_MARKER);
+        return out.toByteArray();
+    }
+
+    /** Returns the merged contents. */
+    byte[] result() {
+        return merged.toByteArray();
+    }
+
+    /** Returns the number of runs of changes that conflicted. */
+    int conflicts() {
+        return conflicts;
+    }
+
+    /** Returns the number of runs of changes merged without conflict. */
+    int clean() {
+        return clean;
+    }
+
+    /** Returns the number of lines gained by the changes [FROM, TO) of CHANGES. */
+    private static int shift(List<Diff.Change> changes, int from, int to) {
+        int shift = 0;
+        for (int k = from; k < to; k += 1) {
+            Diff.Change c = changes.get(k);
+            shift += (c.bEnd - c.bStart) - (c.aEnd - c.aStart);
+        }
+        return shift;
+    }
+
+    /** Appends the lines [FROM, TO) of CONTENTS, whose line offsets are
+     *  LINES, to the merged contents. */
+    private void write(byte[] contents, int[] lines, int from, int to) {
+        merged.write(contents, lines[from], lines[to] - lines[from]);
+    }
+}
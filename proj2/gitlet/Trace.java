@@ -0,0 +1,20 @@
+package gitlet;
+
+/** Optional instrumentation of Gitlet commands.  When the environment
+ *  variable GITLET_TRACE is set, commands report on the standard error
+ *  how much work they did, such as the files and bytes they wrote, so
+ *  their normal output is unchanged.
+ *  @author Min-Hsiu Hsu
+ */
+class Trace {
+    /** True if tracing is on. */
+    static final boolean ENABLED = System.getenv("GITLET_TRACE") != null;
+
+    /** Prints the message formed from MSG and ARGS, as for String.format,
+     *  on the standard error if tracing is on. */
+    static void report(String msg, Object... args) {
+        if (ENABLED) {
+            System.err.printf("trace: " + msg + "%n", args);
+        }
+    }
+}
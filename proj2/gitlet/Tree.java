@@ -0,0 +1,448 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import static gitlet.Utils.*;
+
+/** Tree objects: snapshots of directories, as in git, so that commits
+ *  share every directory they did not change.  The tree of a directory
+ *  maps the name of each file in it to its blob id, and the name of each
+ *  subdirectory to the id of its tree.  A tree is saved in TREE_DIR as
+ *  nodes named after the SHA-1 hash of their encoding.  A directory of at
+ *  most MAX_ENTRIES entries is a single leaf node; a wider one is a shard
+ *  node with FANOUT children, holding the entries whose names hash to
+ *  each digit, one digit further down at each level.  So a directory
+ *  changes in a number of nodes that grows with the number of its entries
+ *  changed, not with the number of its entries, and its nodes depend only
+ *  on its entries, not on how they came about.
+ *  @author Min-Hsiu Hsu
+ */
+class Tree {
+    /** Node encoding: "GLTR" version LEAF count { kind name id }*
+     *  or "GLTR" version SHARD { childId childCount }*FANOUT, where ids
+     *  are written by Utils.writeUid, a missing child as no id, and
+     *  strings and counts by Utils.writeString and writeVarint. */
+    static final int MAGIC = 0x474c5452;
+    private static final int VERSION = 1;
+    private static final byte LEAF = 0;
+    private static final byte SHARD = 1;
+
+    /** The kind of an entry for a file. */
+    static final byte BLOB = 1;
+    /** The kind of an entry for a subdirectory. */
+    static final byte TREE = 2;
+
+    /** The most entries in a leaf node. */
+    static final int MAX_ENTRIES = 128;
+    /** The number of children of a shard node, one per hexadecimal digit. */
+    private static final int FANOUT = 16;
+
+    /** An entry of a directory: a blob or the tree of a subdirectory. */
+    private static class Entry {
+        final byte kind;
+        final String id;
+
+        Entry(byte kind, String id) {
+            this.kind = kind;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry && ((Entry) o).kind == kind && ((Entry) o).id.equals(id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind + id.hashCode();
+        }
+    }
+
+    /** A decoded node: the entries of a leaf, or the children of a shard
+     *  and the number of entries under each. */
+    private static class Node {
+        TreeMap<String, Entry> entries;
+        String[] children;
+        int[] counts;
+
+        /** Returns the number of entries under this node. */
+        int count() {
+            if (entries != null) {
+                return entries.size();
+            }
+            int count = 0;
+            for (int c : counts) {
+                count += c;
+            }
+            return count;
+        }
+    }
+
+    /** A saved node: its id, or null for no node, and its number of entries. */
+    private static class Ref {
+        static final Ref EMPTY = new Ref(null, 0);
+        final String id;
+        final int count;
+
+        Ref(String id, int count) {
+            this.id = id;
+            this.count = count;
+        }
+    }
+
+    /** Returns the files of the tree ID, or of no tree if ID is null, by
+     *  their paths. */
+    static TreeMap<String, File> read(String id) {
+        TreeMap<String, File> files = new TreeMap<>();
+        readDir(id, "", files);
+        return files;
+    }
+
+    /** Adds the files of the directory tree ID to FILES, each path prefixed by PREFIX. */
+    private static void readDir(String id, String prefix, Map<String, File> files) {
+        for (Map.Entry<String, Entry> e : entries(id).entrySet()) {
+            String path = prefix + e.getKey();
+            if (e.getValue().kind == BLOB) {
+                files.put(path, join(Repository.OBJECT_DIR, e.getValue().id));
+            } else {
+                readDir(e.getValue().id, path + "/", files);
+            }
+        }
+    }
+
+    /** Returns the id of the blob or of the tree at PATH in the tree ID,
+     *  or null if there is nothing there or ID is null.  Two trees hold
+     *  the same file or directory at PATH only if this returns the same id
+     *  for both, and only the nodes on the way to PATH are read. */
+    static String lookup(String id, String path) {
+        String[] names = path.split("/");
+        for (int i = 0; i < names.length && id != null; i += 1) {
+            Entry e = find(id, 0, names[i]);
+            if (e == null || (e.kind == BLOB && i < names.length - 1)) {
+                return null;
+            }
+            id = e.id;
+        }
+        return id;
+    }
+
+    /** Returns the id of the tree made from the tree ID, or from no tree if
+     *  ID is null, by CHANGES, which maps each changed path to its new blob,
+     *  or to null to remove it.  Saves the nodes that changed.  Returns
+     *  null if no file is left. */
+    static String update(String id, Map<String, File> changes) {
+        return updateDir(id, changes).id;
+    }
+
+    /** Returns the tree of the directory tree ID updated by CHANGES, whose
+     *  paths are relative to that directory. */
+    private static Ref updateDir(String id, Map<String, File> changes) {
+        Map<String, Entry> updates = new HashMap<>();
+        Map<String, Map<String, File>> subdirs = new TreeMap<>();
+        for (Map.Entry<String, File> e : changes.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                updates.put(path, e.getValue() == null ? null
+                        : new Entry(BLOB, e.getValue().getName()));
+            } else {
+                subdirs.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), e.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, File>> e : subdirs.entrySet()) {
+            Entry old = find(id, 0, e.getKey());
+            Ref sub = updateDir(old != null && old.kind == TREE ? old.id : null, e.getValue());
+            if (sub.id != null) {
+                updates.put(e.getKey(), new Entry(TREE, sub.id));
+            } else if (old != null && old.kind == TREE) {
+                updates.put(e.getKey(), null);
+            }
+        }
+        return updateNode(id, 0, updates);
+    }
+
+    /** Returns the node ID at LEVEL, or no node if ID is null, with UPDATES
+     *  applied to its entries, each name mapped to its new entry or to null
+     *  to remove it. */
+    private static Ref updateNode(String id, int level, Map<String, Entry> updates) {
+        Node node = id == null ? null : load(id);
+        if (node == null || node.entries != null) {
+            TreeMap<String, Entry> entries = node == null ? new TreeMap<>()
+                    : new TreeMap<>(node.entries);
+            for (Map.Entry<String, Entry> u : updates.entrySet()) {
+                if (u.getValue() == null) {
+                    entries.remove(u.getKey());
+                } else {
+                    entries.put(u.getKey(), u.getValue());
+                }
+            }
+            return save(entries, level);
+        }
+
+        Map<Integer, Map<String, Entry>> byDigit = new HashMap<>();
+        for (Map.Entry<String, Entry> u : updates.entrySet()) {
+            byDigit.computeIfAbsent(digit(u.getKey(), level), k -> new HashMap<>())
+                    .put(u.getKey(), u.getValue());
+        }
+        String[] children = node.children.clone();
+        int[] counts = node.counts.clone();
+        for (Map.Entry<Integer, Map<String, Entry>> e : byDigit.entrySet()) {
+            int d = e.getKey();
+            Ref child = updateNode(children[d], level + 1, e.getValue());
+            children[d] = child.id;
+            counts[d] = child.count;
+        }
+        Node updated = new Node();
+        updated.children = children;
+        updated.counts = counts;
+        if (updated.count() <= MAX_ENTRIES) {
+            TreeMap<String, Entry> entries = new TreeMap<>();
+            for (String child : children) {
+                collect(child, entries);
+            }
+            return save(entries, level);
+        }
+        return new Ref(write(updated), updated.count());
+    }
+
+    /** Saves ENTRIES as a node at LEVEL, split into shards if there are too
+     *  many of them, and returns it. */
+    private static Ref save(TreeMap<String, Entry> entries, int level) {
+        if (entries.isEmpty()) {
+            return Ref.EMPTY;
+        }
+        Node node = new Node();
+        if (entries.size() <= MAX_ENTRIES || level >= UID_LENGTH) {
+            node.entries = entries;
+            return new Ref(write(node), entries.size());
+        }
+        List<TreeMap<String, Entry>> shards = new ArrayList<>();
+        for (int d = 0; d < FANOUT; d += 1) {
+            shards.add(new TreeMap<>());
+        }
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            shards.get(digit(e.getKey(), level)).put(e.getKey(), e.getValue());
+        }
+        node.children = new String[FANOUT];
+        node.counts = new int[FANOUT];
+        for (int d = 0; d < FANOUT; d += 1) {
+            if (!shards.get(d).isEmpty()) {
+                Ref child = save(shards.get(d), level + 1);
+                node.children[d] = child.id;
+                node.counts[d] = child.count;
+            }
+        }
+        return new Ref(write(node), entries.size());
+    }
+
+    /** Returns the entry NAME of the directory node ID at LEVEL, or null. */
+    private static Entry find(String id, int level, String name) {
+        while (id != null) {
+            Node node = load(id);
+            if (node.entries != null) {
+                return node.entries.get(name);
+            }
+            id = node.children[digit(name, level)];
+            level += 1;
+        }
+        return null;
+    }
+
+    /** Returns the entries of the directory tree ID, or none if ID is null. */
+    private static TreeMap<String, Entry> entries(String id) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        collect(id, entries);
+        return entries;
+    }
+
+    /** Adds the entries under the node ID, if not null, to ENTRIES. */
+    private static void collect(String id, Map<String, Entry> entries) {
+        if (id == null) {
+            return;
+        }
+        Node node = load(id);
+        if (node.entries != null) {
+            entries.putAll(node.entries);
+        } else {
+            for (String child : node.children) {
+                collect(child, entries);
+            }
+        }
+    }
+
+    /** Adds to CHANGED the path of every file that differs between the
+     *  trees A and B, either of which may be null, skipping the
+     *  directories and shards the two share. */
+    static void diff(String a, String b, Collection<String> changed) {
+        diffNodes(a, b, 0, "", changed);
+    }
+
+    /** Adds to CHANGED the paths, prefixed by PREFIX, of the files that
+     *  differ between the nodes A and B at LEVEL of one directory. */
+    private static void diffNodes(String a, String b, int level, String prefix,
+                                  Collection<String> changed) {
+        if (Objects.equals(a, b)) {
+            return;
+        }
+        Node nodeA = a == null ? null : load(a);
+        Node nodeB = b == null ? null : load(b);
+        if (nodeA != null && nodeB != null && nodeA.children != null && nodeB.children != null) {
+            for (int d = 0; d < FANOUT; d += 1) {
+                diffNodes(nodeA.children[d], nodeB.children[d], level + 1, prefix, changed);
+            }
+            return;
+        }
+        TreeMap<String, Entry> entriesA = new TreeMap<>();
+        TreeMap<String, Entry> entriesB = new TreeMap<>();
+        collect(a, entriesA);
+        collect(b, entriesB);
+        TreeSet<String> names = new TreeSet<>(entriesA.keySet());
+        names.addAll(entriesB.keySet());
+        for (String name : names) {
+            Entry ea = entriesA.get(name);
+            Entry eb = entriesB.get(name);
+            if (Objects.equals(ea, eb)) {
+                continue;
+            }
+            String path = prefix + name;
+            String treeA = ea != null && ea.kind == TREE ? ea.id : null;
+            String treeB = eb != null && eb.kind == TREE ? eb.id : null;
+            if ((ea != null && ea.kind == BLOB) || (eb != null && eb.kind == BLOB)) {
+                changed.add(path);
+            }
+            diffNodes(treeA, treeB, 0, path + "/", changed);
+        }
+    }
+
+    /** Marks the tree ID and all the nodes, trees and blobs under it in
+     *  REACHABLE, skipping those already marked, which share all that is
+     *  under them. */
+    static void mark(ObjectBitmap reachable, String id) {
+        if (id == null || !reachable.mark(id)) {
+            return;
+        }
+        Node node = load(id);
+        if (node.children != null) {
+            for (String child : node.children) {
+                mark(reachable, child);
+            }
+            return;
+        }
+        for (Entry e : node.entries.values()) {
+            if (e.kind == TREE) {
+                mark(reachable, e.id);
+            } else {
+                ObjectStore.markBlob(reachable, join(Repository.OBJECT_DIR, e.id));
+            }
+        }
+    }
+
+    /** Calls NODES with the id of each node of the tree ID and BLOBS with
+     *  the id of each blob under it, except for those in SEEN and all under
+     *  a node in SEEN, and adds each id it calls them with to SEEN.  Nodes
+     *  come before the nodes and blobs they refer to. */
+    static void walk(String id, Set<String> seen, Consumer<String> nodes, Consumer<String> blobs) {
+        if (id == null || !seen.add(id)) {
+            return;
+        }
+        nodes.accept(id);
+        Node node = load(id);
+        if (node.children != null) {
+            for (String child : node.children) {
+                walk(child, seen, nodes, blobs);
+            }
+            return;
+        }
+        for (Entry e : node.entries.values()) {
+            if (e.kind == TREE) {
+                walk(e.id, seen, nodes, blobs);
+            } else if (seen.add(e.id)) {
+                blobs.accept(e.id);
+            }
+        }
+    }
+
+    /** Returns the digit of the hash of NAME that places it at LEVEL. */
+    private static int digit(String name, int level) {
+        return Character.digit(sha1(name).charAt(level), FANOUT);
+    }
+
+    /** Saves NODE, unless it is already saved, and returns its id. */
+    private static String write(Node node) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            if (node.entries != null) {
+                out.writeByte(LEAF);
+                writeVarint(out, node.entries.size());
+                for (Map.Entry<String, Entry> e : node.entries.entrySet()) {
+                    out.writeByte(e.getValue().kind);
+                    writeString(out, e.getKey());
+                    writeUid(out, e.getValue().id);
+                }
+            } else {
+                out.writeByte(SHARD);
+                for (int d = 0; d < FANOUT; d += 1) {
+                    writeUid(out, node.children[d]);
+                    writeVarint(out, node.counts[d]);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Internal error encoding tree.");
+        }
+        byte[] encoded = bytes.toByteArray();
+        String id = sha1(encoded);
+        File f = join(Repository.TREE_DIR, id);
+        if (!ObjectStore.exists(f)) {
+            Repository.TREE_DIR.mkdir();
+            ObjectStore.writeObject(f, encoded);
+        }
+        return id;
+    }
+
+    /** Returns the node ID. */
+    private static Node load(String id) {
+        byte[] bytes = ObjectStore.read(join(Repository.TREE_DIR, id));
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw error("Corrupted tree %s: unknown format", id);
+            }
+            Node node = new Node();
+            if (in.readByte() == LEAF) {
+                node.entries = new TreeMap<>();
+                for (int n = readVarint(in); n > 0; n -= 1) {
+                    byte kind = in.readByte();
+                    String name = readString(in);
+                    node.entries.put(name, new Entry(kind, readUid(in)));
+                }
+            } else {
+                node.children = new String[FANOUT];
+                node.counts = new int[FANOUT];
+                for (int d = 0; d < FANOUT; d += 1) {
+                    node.children[d] = readUid(in);
+                    node.counts[d] = readVarint(in);
+                }
+            }
+            return node;
+        } catch (IOException excp) {
+            throw error("Corrupted tree %s: %s", id, excp.getMessage());
+        }
+    }
+}
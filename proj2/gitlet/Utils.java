@@ -1,16 +1,22 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -63,6 +69,50 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Size of the buffer through which file contents are streamed. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Returns the SHA-1 hash of the contents of FILE.  FILE is read through
+     *  a fixed-size buffer, so memory use does not depend on its size.
+     *  Throws IllegalArgumentException in case of problems. */
+    static String sha1(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+            }
+            return bytesToUid(md.digest(), 0, UID_LENGTH / 2);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the UID_LENGTH / 2 bytes denoted by the hexadecimal UID ID. */
+    static byte[] uidToBytes(String id) {
+        byte[] result = new byte[id.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal UID of the LEN bytes of BYTES starting at OFFSET. */
+    static String bytesToUid(byte[] bytes, int offset, int len) {
+        char[] result = new char[2 * len];
+        for (int i = 0; i < len; i += 1) {
+            int b = bytes[offset + i] & 0xff;
+            result[2 * i] = HEX_DIGITS[b >>> 4];
+            result[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** The digits of hexadecimal UIDs. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -136,6 +186,24 @@ class Utils {
         }
     }
 
+    /** Cuts FILE, a header of HEADERBYTES bytes followed by records of
+     *  RECORDBYTES bytes each, back to its last whole record, or to nothing
+     *  if its header is incomplete, so that records appended after a crash
+     *  cut one short start on a record boundary.  Returns true if FILE
+     *  then holds a header. */
+    static boolean truncateRecords(File file, int headerBytes, int recordBytes) {
+        long length = file.length();
+        long whole = length < headerBytes ? 0 : length - (length - headerBytes) % recordBytes;
+        if (whole != length) {
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                ch.truncate(whole);
+            } catch (IOException excp) {
+                throw error("Cannot truncate %s: %s", file, excp.getMessage());
+            }
+        }
+        return whole > 0;
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -220,6 +288,89 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true if BYTES hold an object written by Java serialization,
+     *  as repos were saved before they had a binary encoding. */
+    static boolean isJavaSerialized(byte[] bytes) {
+        return bytes.length >= 2 && (bytes[0] & 0xff) == 0xac && (bytes[1] & 0xff) == 0xed;
+    }
+
+
+    /* BINARY ENCODING */
+
+    /** Writes the non-negative V to OUT in 7-bit groups, least significant
+     *  first, with the top bit of each byte set if more follow. */
+    static void writeVarint(DataOutput out, int v) throws IOException {
+        while (v >= 0x80) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    /** Reads a number written by writeVarint from IN. */
+    static int readVarint(DataInput in) throws IOException {
+        int v = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return v;
+            }
+        }
+    }
+
+    /** Writes S to OUT as the length of its UTF-8 encoding followed by
+     *  that encoding. */
+    static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /** Reads a string written by writeString from IN. */
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[readVarint(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Writes the UID ID, which may be null, to OUT as its length in bytes
+     *  (0 for null) followed by those bytes. */
+    static void writeUid(DataOutput out, String id) throws IOException {
+        if (id == null) {
+            out.writeByte(0);
+        } else {
+            byte[] bytes = uidToBytes(id);
+            out.writeByte(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /** Reads a UID written by writeUid from IN, or null if it was null. */
+    static String readUid(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedByte()];
+        if (bytes.length == 0) {
+            return null;
+        }
+        in.readFully(bytes);
+        return bytesToUid(bytes, 0, bytes.length);
+    }
 
 
     /* MESSAGES AND ERROR REPORTING */
@@ -239,11 +390,23 @@ class Utils {
 
     /**
      * Print a message composed from MSG and ARGS as for the message,
-     * but exit the program with error code 0.
+     * and end the command by throwing CommandExit, after which the
+     * program exits with error code 0.
      */
     static void errorExit(String msg, Object... args) {
         System.out.printf(msg, args);
         System.out.println();
-        System.exit(0);
+        throw new CommandExit();
+    }
+
+    /** Ends a command that has printed why it cannot go on.  It is caught
+     *  by Main, or by the Server running the command, so that ending a
+     *  command does not end the daemon. */
+    static class CommandExit extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        CommandExit() {
+            super(null, null, false, false);
+        }
     }
 }
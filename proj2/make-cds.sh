@@ -0,0 +1,32 @@
+#!/bin/bash
+# Builds gitlet.jsa, a class-data-sharing archive of the classes that
+# gitlet.Main loads while running the sample tests, for bin/gitlet.
+# Usage: ./make-cds.sh [JAR]
+# archives the classes of JAR, copied to gitlet.jar, or if no JAR is
+# given, of a gitlet.jar made from the compiled classes in gitlet/.
+# Application classes can only be archived from a jar, and the archive
+# is only used with the very jar it was made from.
+set -e
+cd "$(dirname "$0")"
+if [ -n "$1" ]; then
+    cp "$1" gitlet.jar
+else
+    jar cf gitlet.jar gitlet/*.class
+fi
+
+train="$(mktemp -d)"
+trap 'rm -rf "$train"' EXIT
+# A java command for the tester that records the classes each run loads.
+cat > "$train/java" <<EOF
+#!/bin/sh
+exec "$(command -v java)" -XX:DumpLoadedClassList="$train/\$\$.lst" "\$@"
+EOF
+chmod +x "$train/java"
+(cd testing && PATH="$train:$PATH" python3 tester.py --progdir="$PWD/../gitlet.jar" samples/*.in)
+
+# Merges the class lists, keeping the first of each line.
+cat "$train"/*.lst | grep -v '^#' | awk '!seen[$0]++' > "$train/classes.lst"
+rm -f gitlet.jsa
+java -Xshare:dump -XX:SharedClassListFile="$train/classes.lst" \
+     -XX:SharedArchiveFile=gitlet.jsa -cp "$PWD/gitlet.jar" > "$train/dump.log"
+echo "Wrote gitlet.jsa: $(wc -l < "$train/classes.lst") classes."